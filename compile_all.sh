@@ -3,4 +3,4 @@ if ! [ -d classes ];
 then
    mkdir classes
 fi
-javac -cp . -d classes ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/NormalizationType.java ir/PersistentHashedIndex.java ir/PostingsEntry.java ir/PostingsList.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/Searcher.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/Tokenizer.java ir/TokenTest.java 
+javac -cp . -d classes ir/ConcurrentHashedIndex.java ir/DocIDReordering.java ir/Engine.java ir/FileCrawler.java ir/HashedIndex.java ir/HITSRanker.java ir/IncrementalIndex.java ir/Index.java ir/IndexSnapshot.java ir/IndexingPipeline.java ir/IndexingStats.java ir/IndexingStatsMBean.java ir/IndexView.java ir/IndexWatcher.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/NormalizationType.java ir/PersistentHashedIndex.java ir/PostingsEntry.java ir/PostingsIterator.java ir/PostingsList.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/ScoreAccumulator.java ir/SearchableIndex.java ir/Searcher.java ir/SearcherManager.java ir/SearchResult.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/TermDictionary.java ir/TopKCollector.java ir/TokenBuffer.java ir/TokenHandler.java ir/Tokenizer.java ir/TokenizerConfig.java ir/TokenTest.java 
@@ -0,0 +1,267 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An inverted index in main memory that many threads can index into at the
+ * same time, each thread indexing documents of its own.
+ *
+ * The tokens of a document are first inserted into a small index of the
+ * document alone, with a dictionary of its own, which only the thread
+ * indexing it touches. Once the document is committed, the same thread adds
+ * its postings to the shared postings lists. Each list is locked on its own
+ * while a document is added to it, and the shared dictionary is locked for
+ * writing only when a document brings a new term, so threads only wait for
+ * each other when they add to the same list at the same time.
+ *
+ * The documents are numbered from 0 on, as the Indexer does, and are
+ * published in docID order: a document is published once it and every
+ * document before it are committed or discarded. A document committed
+ * before the ones before it is already in the lists, but searches do not see
+ * it yet. Every docID must be either committed or discarded, or the
+ * documents after it are never published.
+ *
+ * A search running meanwhile sees the documents published before it looked
+ * the term up, in full: a postings list is handed out as the part of the
+ * shared list up to the last document published, sharing its arrays, and
+ * never as a copy. A document added out of docID order is inserted after
+ * that part, which leaves it as it is. Once <code>cleanup</code> has run the
+ * index is complete, and takes no more documents.
+ */
+public class ConcurrentHashedIndex implements Index
+{
+    /**
+     * A document being indexed, and not published yet.
+     */
+    private static class Staged
+    {
+        final TermDictionary terms = new TermDictionary();
+        PostingsList[] postings = new PostingsList[64];
+
+        void insert(int termID, int docID, int offset)
+        {
+            if (termID == postings.length) {
+                postings = Arrays.copyOf(postings, postings.length * 2);
+            }
+            if (postings[termID] == null) {
+                postings[termID] = new PostingsList();
+            }
+            postings[termID].add(docID, offset);
+        }
+    }
+
+    /**
+     * The dictionary of the published documents, giving each word a term identifier.
+     */
+    private final TermDictionary dictionary = new TermDictionary();
+
+    /**
+     * The postings lists, indexed by term identifier.
+     */
+    private PostingsList[] postings = new PostingsList[1024];
+
+    /**
+     * Guards the dictionary and the array of postings lists.
+     */
+    private final ReentrantReadWriteLock terms = new ReentrantReadWriteLock();
+
+    /**
+     * The documents being indexed, by docID.
+     */
+    private final ConcurrentHashMap<Integer, Staged> staging = new ConcurrentHashMap<>();
+
+    /**
+     * The documents committed or discarded. It is locked while a document is
+     * added to it.
+     */
+    private final BitSet done = new BitSet();
+
+    /**
+     * Every document up to this one is published.
+     */
+    private volatile int published = -1;
+
+    /**
+     * True once the index is complete.
+     */
+    private volatile boolean frozen = false;
+
+
+    /**
+     * Inserts this token of a document that is not committed yet.
+     */
+    public void insert(String token, int docID, int offset)
+    {
+        Staged doc = staged(docID);
+        doc.insert(doc.terms.add(token), docID, offset);
+    }
+
+    /**
+     * Inserts the token <code>buf[start..start+length)</code> of a document
+     * that is not committed yet.
+     */
+    public void insert(char[] buf, int start, int length, int docID, int offset)
+    {
+        Staged doc = staged(docID);
+        doc.insert(doc.terms.add(buf, start, length), docID, offset);
+    }
+
+    private Staged staged(int docID)
+    {
+        checkOpen();
+        Staged doc = staging.get(docID);
+        return doc != null ? doc : staging.computeIfAbsent(docID, id -> new Staged());
+    }
+
+    private void checkOpen()
+    {
+        if (frozen) {
+            throw new IllegalStateException("The index is complete, it takes no more documents");
+        }
+    }
+
+    /**
+     * Adds the postings of the document to the shared postings lists, and
+     * publishes it once the documents before it are committed or discarded.
+     */
+    public void commit(int docID, String name, int length)
+    {
+        checkOpen();
+        Staged doc = staging.remove(docID);
+        if (doc != null) {
+            append(doc);
+        }
+        docNames.put(docID, name);
+        docLengths.put(docID, length);
+        done(docID);
+    }
+
+    /**
+     * Drops the document, so that the documents after it can be published.
+     */
+    public void discard(int docID)
+    {
+        checkOpen();
+        staging.remove(docID);
+        done(docID);
+    }
+
+    /**
+     * Publishes the documents up to the first one that is neither committed
+     * nor discarded yet.
+     */
+    private void done(int docID)
+    {
+        synchronized (done) {
+            done.set(docID);
+            published = done.nextClearBit(published + 1) - 1;
+        }
+    }
+
+    /**
+     * Adds the postings of a document to the shared postings lists.
+     */
+    private void append(Staged doc)
+    {
+        for (int id = 0; id < doc.terms.size(); id++) {
+            PostingsList list;
+            terms.readLock().lock();
+            try {
+                int termID = dictionary.lookup(doc.terms, id);
+                list = termID < 0 ? null : postings[termID];
+            } finally {
+                terms.readLock().unlock();
+            }
+            if (list == null) {
+                terms.writeLock().lock();
+                try {
+                    int termID = dictionary.add(doc.terms, id);
+                    if (termID == postings.length) {
+                        postings = Arrays.copyOf(postings, postings.length * 2);
+                    }
+                    if (postings[termID] == null) {
+                        postings[termID] = new PostingsList();
+                    }
+                    list = postings[termID];
+                } finally {
+                    terms.writeLock().unlock();
+                }
+            }
+            PostingsIterator it = doc.postings[id].iterator();
+            it.nextDoc();
+            synchronized (list) {
+                list.add(it);
+            }
+        }
+    }
+
+    /**
+     * Returns the postings of the published documents for a term, or null if
+     * none of them has it. While the index is being built this shares the
+     * arrays of the shared list, which is only appended to.
+     */
+    public PostingsList getPostings(String token)
+    {
+        int upTo = published;
+        PostingsList list;
+        terms.readLock().lock();
+        try {
+            int termID = dictionary.lookup(token);
+            list = termID < 0 ? null : postings[termID];
+        } finally {
+            terms.readLock().unlock();
+        }
+        if (list == null) {
+            return null;
+        }
+        if (!frozen) {
+            synchronized (list) {
+                list = list.prefix(upTo);
+            }
+        }
+        return list.size() == 0 ? null : list;
+    }
+
+    public int getNrOfDocuments()
+    {
+        return docLengths.size();
+    }
+
+    public void measure(IndexingStats.Sizes sizes)
+    {
+        terms.readLock().lock();
+        try {
+            int n = dictionary.size();
+            sizes.terms += n;
+            sizes.dictionaryBytes += dictionary.heapBytes();
+            sizes.postingsBytes += 16 + 4L * postings.length;
+            for (int termID = 0; termID < n; termID++) {
+                sizes.postings += postings[termID].size();
+                sizes.postingsBytes += postings[termID].heapBytes();
+            }
+        } finally {
+            terms.readLock().unlock();
+        }
+    }
+
+    /**
+     * Completes the index once every thread is done indexing, and computes
+     * the statistics used at query time like HashedIndex does. It must not
+     * be searched meanwhile.
+     */
+    public void cleanup()
+    {
+        // what was never committed could not be read
+        frozen = true;
+        staging.clear();
+        HashedIndex.computeStatistics(postings, dictionary.size(), new BitSet());
+    }
+}
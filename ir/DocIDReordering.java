@@ -0,0 +1,82 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives the documents of an index new docIDs once it is built, so that
+ * documents that are alike get docIDs close to each other.
+ *
+ * The indexer hands out docIDs in the order the files are listed, which has
+ * little to do with what they are about. Documents in the same directory, or
+ * with names that start alike, tend to share terms, so numbering them in
+ * path order makes the docID gaps in the postings lists smaller. Smaller gaps
+ * take fewer bytes once a list is compressed, and a query skips over more of
+ * a list at a time.
+ *
+ * The postings lists and the doc tables are renumbered together, before the
+ * statistics of the index are computed.
+ */
+public class DocIDReordering
+{
+    /**
+     * Returns the new docID of every document, indexed by its current docID,
+     * numbering the documents 0, 1, 2, ... in the order of their paths.
+     * A docID that has no name keeps its place after the named documents.
+     */
+    public static int[] byName()
+    {
+        List<Map.Entry<Integer, String>> docs = new ArrayList<>(Index.docNames.entrySet());
+        docs.sort(Map.Entry.comparingByValue());
+        int maxDocID = -1;
+        for (int docID : Index.docLengths.keySet()) {
+            maxDocID = Math.max(maxDocID, docID);
+        }
+        for (Map.Entry<Integer, String> doc : docs) {
+            maxDocID = Math.max(maxDocID, doc.getKey());
+        }
+        int[] newDocIDs = new int[maxDocID + 1];
+        Arrays.fill(newDocIDs, -1);
+        int next = 0;
+        for (Map.Entry<Integer, String> doc : docs) {
+            newDocIDs[doc.getKey()] = next++;
+        }
+        for (int docID = 0; docID < newDocIDs.length; docID++) {
+            if (newDocIDs[docID] < 0) {
+                newDocIDs[docID] = next++;
+            }
+        }
+        return newDocIDs;
+    }
+
+    /**
+     * Gives each document <code>d</code> of the index the docID
+     * <code>newDocIDs[d]</code>, in its postings lists and in the doc tables.
+     * This must be done before <code>index.cleanup()</code>, and while nothing
+     * searches the index.
+     */
+    public static void apply(HashedIndex index, int[] newDocIDs)
+    {
+        index.renumber(newDocIDs);
+        renumber(Index.docNames, newDocIDs);
+        renumber(Index.docLengths, newDocIDs);
+        renumber(Index.docNorms, newDocIDs);
+    }
+
+    private static <V> void renumber(Map<Integer, V> table, int[] newDocIDs)
+    {
+        Map<Integer, V> old = new HashMap<>(table);
+        table.clear();
+        for (Map.Entry<Integer, V> doc : old.entrySet()) {
+            table.put(newDocIDs[doc.getKey()], doc.getValue());
+        }
+    }
+}
@@ -10,7 +10,9 @@
 package ir;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.io.File;
+import java.io.IOException;
 
 /**
  * This is the main class for the search engine.
@@ -41,9 +43,9 @@ public class Engine
     KGramIndex kgIndex = new KGramIndex(2);
 
     /**
-     * The searcher used to search the index.
+     * Hands out the views of the index that searches use.
      */
-    Searcher searcher;
+    SearcherManager searchers;
 
     /**
      * Spell checker
@@ -60,11 +62,6 @@ public class Engine
      */
     ArrayList<String> dirNames = new ArrayList<>();
 
-    /**
-     * Lock to prevent simultaneous access to the index.
-     */
-    Object indexLock = new Object();
-
     /**
      * The patterns matching non-standard words (e-mail addresses, etc.)
      */
@@ -85,6 +82,42 @@ public class Engine
      */
     boolean is_indexing = true;
 
+    /**
+     * Number of threads indexing the files. With more than one, each thread
+     * builds a partial index that is merged into the index at the end.
+     */
+    int nrOfIndexingThreads = 1;
+
+    /**
+     * Number of threads reading and tokenizing files when indexing in a
+     * pipeline, 0 to not use the pipeline.
+     */
+    int nrOfReadingThreads = 0;
+    int nrOfTokenizingThreads = 0;
+
+    /**
+     * Keep the index up to date with the directories once it is built
+     * (or loaded), instead of indexing them again at every start.
+     */
+    boolean is_incremental = false;
+
+    /**
+     * Updates the index when files change, in incremental mode.
+     */
+    IndexWatcher watcher;
+
+    /**
+     * Load the index from the snapshot of an earlier run over the same
+     * directories instead of indexing them, and write one after indexing.
+     */
+    boolean use_snapshot = false;
+
+    /**
+     * Renumber the documents in path order once they are indexed, which
+     * makes the postings lists compress better (see DocIDReordering).
+     */
+    boolean reorder_docs = false;
+
 
     /* ----------------------------------------------- */
 
@@ -96,39 +129,139 @@ public class Engine
     public Engine(String[] args)
     {
         decodeArgs(args);
+        if (is_incremental && index instanceof ConcurrentHashedIndex) {
+            System.err.println("An incremental index needs a HashedIndex, -ci is ignored");
+            index = new HashedIndex();
+        }
+        if (use_snapshot) {
+            loadSnapshot();
+        }
+        if (is_incremental) {
+            IncrementalIndex incremental = new IncrementalIndex(index, !is_indexing);
+            if (use_snapshot) {
+                incremental.setPersister((main, dropped) -> writeSnapshot((HashedIndex) main, dropped));
+            }
+            index = incremental;
+        }
         indexer = new Indexer(index, kgIndex, patterns_file);
-        searcher = new Searcher(index, kgIndex);
+        searchers = new SearcherManager(is_indexing ? IndexView.empty() : view(), kgIndex);
         gui = new SearchGUI(this);
         gui.init();
         /*
          *   Calls the indexer to index the chosen directory structure.
-         *   Access to the index is synchronized since we don't want to
-         *   search at the same time we're indexing new files (this might
-         *   corrupt the index).
+         *   Searches meanwhile run on an empty view, and see the index
+         *   once it is complete and published.
          */
         if (is_indexing) {
-            synchronized (indexLock) {
-                gui.displayInfoText("Indexing, please wait...");
-                long startTime = System.currentTimeMillis();
-                for (String dirName : dirNames) {
-                    File dokDir = new File(dirName);
-                    indexer.processFiles(dokDir, is_indexing);
-
-                    // added this line for 3.3 - part 2
-                    // translate: kgIndex.insert(token);
-                    kgIndex.init(
-                            "C:\\Users\\HP\\Documents\\courses\\Search Engines and Information Retrieval systems - DD2477\\Assignments\\SearchEngine-Assignment\\assignment1\\kgram_test.txt",
-                            patterns_file
-                    );
-
+            gui.displayInfoText("Indexing, please wait...");
+            indexer.stats.register();
+            indexer.stats.start();
+            long startTime = System.currentTimeMillis();
+            for (String dirName : dirNames) {
+                File dokDir = new File(dirName);
+                if (nrOfReadingThreads > 0 || nrOfTokenizingThreads > 0) {
+                    indexer.processFilesPipelined(dokDir, is_indexing, nrOfReadingThreads, nrOfTokenizingThreads);
+                } else {
+                    indexer.processFilesInParallel(dokDir, is_indexing, nrOfIndexingThreads);
                 }
-                long elapsedTime = System.currentTimeMillis() - startTime;
-                gui.displayInfoText(String.format("Indexing done in %.1f seconds.", elapsedTime / 1000.0));
-                index.cleanup();
+
+                // added this line for 3.3 - part 2
+                // translate: kgIndex.insert(token);
+                kgIndex.init(
+                        "C:\\Users\\HP\\Documents\\courses\\Search Engines and Information Retrieval systems - DD2477\\Assignments\\SearchEngine-Assignment\\assignment1\\kgram_test.txt",
+                        patterns_file
+                );
+
             }
+            long elapsedTime = System.currentTimeMillis() - startTime;
+            gui.displayInfoText(String.format("Indexing done in %.1f seconds.", elapsedTime / 1000.0));
+            if (reorder_docs) {
+                reorderDocs();
+            }
+            index.cleanup();
+            indexer.stats.stop();
+            if (use_snapshot && !is_incremental) {
+                writeSnapshot((HashedIndex) index, new BitSet());
+            }
+            searchers.publish(view());
         } else {
             gui.displayInfoText("Index is loaded from disk");
         }
+        if (is_incremental) {
+            watcher = new IndexWatcher(indexer, (IncrementalIndex) index, dirNames, searchers);
+            watcher.start();
+        }
+    }
+
+
+    /* ----------------------------------------------- */
+
+    /**
+     * Renumbers the documents of the index in path order, before its
+     * statistics are computed.
+     */
+    private void reorderDocs()
+    {
+        if (!(index instanceof HashedIndex)) {
+            System.err.println("Only a HashedIndex that is not incremental can be reordered, -ro is ignored");
+            return;
+        }
+        DocIDReordering.apply((HashedIndex) index, DocIDReordering.byName());
+    }
+
+    /**
+     * Loads the index and the k-gram index from the snapshot, if there is
+     * one of the directories to index. They are then not indexed.
+     */
+    private void loadSnapshot()
+    {
+        if (!(index instanceof HashedIndex)) {
+            System.err.println("Only a HashedIndex has snapshots");
+            use_snapshot = false;
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        try {
+            IndexSnapshot snapshot = IndexSnapshot.read(IndexSnapshot.SNAPSHOT_FNAME, dirNames);
+            if (snapshot == null) {
+                return;
+            }
+            index = snapshot.index;
+            kgIndex = snapshot.kgIndex;
+            is_indexing = false;
+            long elapsedTime = System.currentTimeMillis() - startTime;
+            System.err.println(String.format("Snapshot loaded in %.1f seconds.", elapsedTime / 1000.0));
+        } catch (IOException e) {
+            System.err.println("Warning: could not load " + IndexSnapshot.SNAPSHOT_FNAME + ", indexing again.");
+            Index.docNames.clear();
+            Index.docLengths.clear();
+            Index.docNorms.clear();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the index and the k-gram index, leaving out the
+     * documents in <code>dropped</code>.
+     */
+    private void writeSnapshot(HashedIndex main, BitSet dropped)
+    {
+        try {
+            IndexSnapshot.write(IndexSnapshot.SNAPSHOT_FNAME, dirNames, main, kgIndex, dropped);
+        } catch (IOException e) {
+            System.err.println("Warning: could not write " + IndexSnapshot.SNAPSHOT_FNAME);
+        }
+    }
+
+
+    /**
+     * Returns a view of the index as it is now.
+     */
+    private IndexView view()
+    {
+        if (index instanceof IncrementalIndex) {
+            return ((IncrementalIndex) index).view();
+        }
+        return new IndexView(index);
     }
 
 
@@ -161,9 +294,36 @@ public class Engine
                 if (i < args.length) {
                     rank_file = args[i++];
                 }
+            } else if ("-t".equals(args[i])) {
+                i++;
+                if (i < args.length) {
+                    nrOfIndexingThreads = Integer.parseInt(args[i++]);
+                }
+            } else if ("-rt".equals(args[i])) {
+                i++;
+                if (i < args.length) {
+                    nrOfReadingThreads = Integer.parseInt(args[i++]);
+                }
+            } else if ("-tt".equals(args[i])) {
+                i++;
+                if (i < args.length) {
+                    nrOfTokenizingThreads = Integer.parseInt(args[i++]);
+                }
             } else if ("-ni".equals(args[i])) {
                 i++;
                 is_indexing = false;
+            } else if ("-inc".equals(args[i])) {
+                i++;
+                is_incremental = true;
+            } else if ("-s".equals(args[i])) {
+                i++;
+                use_snapshot = true;
+            } else if ("-ci".equals(args[i])) {
+                i++;
+                index = new ConcurrentHashedIndex();
+            } else if ("-ro".equals(args[i])) {
+                i++;
+                reorder_docs = true;
             } else {
                 System.err.println("Unknown option: " + args[i]);
                 break;
@@ -0,0 +1,253 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Walks a directory tree and loads the files ahead of the code indexing them.
+ *
+ * The tree is walked with <code>Files.walkFileTree</code> on a thread of
+ * its own, and every file found is read by a pool of reader threads into a
+ * ByteBuffer. Up to <code>prefetch</code> files are walked and read ahead
+ * of the handler, so on a cold cache or a network mount many reads are
+ * waiting on the disk at the same time instead of one after the other.
+ * The handler still gets the files one by one, in the order of the walk.
+ */
+public class FileCrawler
+{
+    /**
+     * Gets the files of a walk.
+     */
+    public interface FileHandler
+    {
+        void handle(Path file) throws InterruptedException;
+    }
+
+    /**
+     * Gets the files of a crawl, with their contents.
+     */
+    public interface ContentsHandler
+    {
+        /**
+         * @param contents The bytes of the file, or null if it could not be read.
+         * @param modified The modification time of the file when it was read,
+         *                 or -1 if it is not known (see <code>lastModified</code>).
+         */
+        void handle(Path file, ByteBuffer contents, long modified) throws InterruptedException;
+    }
+
+    /**
+     * A file and its contents, as loaded by a reader thread.
+     */
+    private static class Loaded
+    {
+        final Path file;
+        final ByteBuffer contents;
+        final long modified;
+
+        Loaded(Path file, ByteBuffer contents, long modified)
+        {
+            this.file = file;
+            this.contents = contents;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * Put in the queue after the last file.
+     */
+    private static final Future<Loaded> END = CompletableFuture.completedFuture(null);
+
+    private final int nrOfReaders;
+    private final int prefetch;
+    private final IndexingStats stats;
+
+    /**
+     * @param nrOfReaders Number of threads reading files.
+     * @param prefetch    Maximum number of files read ahead of the handler.
+     */
+    public FileCrawler(int nrOfReaders, int prefetch)
+    {
+        this(nrOfReaders, prefetch, null);
+    }
+
+    /**
+     * @param nrOfReaders Number of threads reading files.
+     * @param prefetch    Maximum number of files read ahead of the handler.
+     * @param stats       Where the reads are counted, or null.
+     */
+    public FileCrawler(int nrOfReaders, int prefetch, IndexingStats stats)
+    {
+        this.nrOfReaders = Math.max(nrOfReaders, 1);
+        this.prefetch = Math.max(prefetch, 1);
+        this.stats = stats;
+    }
+
+    /**
+     * Walks the tree under <code>root</code> and hands each readable file to
+     * <code>handler</code>. Directories are entered when they are met, like
+     * <code>File.list()</code> and recursion would, so files come in the same
+     * order as with <code>Indexer.processFiles</code> before. Unreadable
+     * files and directories are skipped.
+     */
+    public static void walk(Path root, FileHandler handler) throws InterruptedException
+    {
+        InterruptedException[] interrupted = new InterruptedException[1];
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                {
+                    return Files.isReadable(dir) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                {
+                    if (Files.isReadable(file)) {
+                        try {
+                            handler.handle(file);
+                        } catch (InterruptedException e) {
+                            interrupted[0] = e;
+                            return FileVisitResult.TERMINATE;
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e)
+                {
+                    // an IO error could occur
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e)
+                {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Warning: IOException while walking " + root);
+        }
+        if (interrupted[0] != null) {
+            throw interrupted[0];
+        }
+    }
+
+    /**
+     * Returns the modification time of a file in milliseconds, or -1 if it
+     * cannot be read. It is taken just before the file is loaded, so that a
+     * file written to while it is read looks changed afterwards.
+     */
+    public static long lastModified(Path file)
+    {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads a whole file into a buffer, positioned at its start.
+     */
+    public static ByteBuffer load(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large");
+            }
+            ByteBuffer contents = ByteBuffer.allocate((int) size);
+            while (contents.hasRemaining() && channel.read(contents) >= 0) {
+            }
+            contents.flip();
+            return contents;
+        }
+    }
+
+    /**
+     * Walks the tree under <code>root</code> like <code>walk</code>, and
+     * hands each file with its contents to <code>handler</code>, on the
+     * calling thread and in the order of the walk. If the walk fails, the
+     * crawl stops with a RuntimeException once the files before are handled.
+     */
+    public void crawl(Path root, ContentsHandler handler) throws InterruptedException
+    {
+        ExecutorService readers = Executors.newFixedThreadPool(nrOfReaders, work -> {
+            Thread thread = new Thread(work, "crawler-read");
+            thread.setDaemon(true);
+            return thread;
+        });
+        BlockingQueue<Future<Loaded>> ahead = new ArrayBlockingQueue<>(prefetch);
+        Thread walker = new Thread(() -> {
+            try {
+                walk(root, file -> ahead.put(readers.submit(() -> {
+                    long modified = lastModified(file);
+                    try {
+                        long startTime = System.nanoTime();
+                        ByteBuffer contents = load(file);
+                        if (stats != null) {
+                            stats.read(System.nanoTime() - startTime, contents.remaining());
+                        }
+                        return new Loaded(file, contents, modified);
+                    } catch (IOException e) {
+                        return new Loaded(file, null, modified);
+                    }
+                })));
+                ahead.put(END);
+            } catch (InterruptedException e) {
+                // the crawl is being stopped
+            } catch (RuntimeException | Error e) {
+                // the crawl waits for the next file, so it gets the failure instead
+                CompletableFuture<Loaded> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                try {
+                    ahead.put(failed);
+                } catch (InterruptedException stopped) {
+                    // the crawl is being stopped
+                }
+            }
+        }, "crawler-walk");
+        walker.setDaemon(true);
+        walker.start();
+        try {
+            while (true) {
+                Loaded loaded = ahead.take().get();
+                if (loaded == null) {
+                    break;
+                }
+                handler.handle(loaded.file, loaded.contents, loaded.modified);
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            walker.interrupt();
+            readers.shutdownNow();
+        }
+    }
+}
@@ -10,33 +10,273 @@
 
 package ir;
 
-import java.util.HashMap;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
- * Implements an inverted index as a Hashtable from words to PostingsLists.
+ * Implements an inverted index as a dictionary from words to term identifiers,
+ * and an array of PostingsLists indexed by term identifier.
+ *
+ * While one thread inserts documents, other threads can search the snapshots
+ * of the index taken meanwhile (see <code>snapshot</code>).
  */
 public class HashedIndex implements Index
 {
     /**
-     * The index as a hashtable.
+     * The dictionary, giving each word a term identifier.
+     */
+    private final TermDictionary dictionary;
+
+    /**
+     * The postings lists, indexed by term identifier.
+     */
+    private PostingsList[] postings = new PostingsList[1024];
+
+    /**
+     * What the scores of the documents are divided by for Euclidean
+     * normalization, indexed by docID, as the score bounds were computed
+     * with, or null before they are. A later merge puts new norms in the doc
+     * tables, but leaves these as they are, for the views searching this index.
+     */
+    private double[] norms = null;
+
+    /**
+     * Guards the dictionary against the searches of the snapshots, and the
+     * lists they see. Only the thread inserting documents changes them, so
+     * it reads them without the lock.
+     */
+    private final ReentrantReadWriteLock terms = new ReentrantReadWriteLock();
+
+    /**
+     * The postings lists as the last snapshot saw them, indexed by term
+     * identifier, with their score bounds.
+     */
+    private PostingsList[] frozen = new PostingsList[0];
+
+    /**
+     * The terms whose lists changed since the last snapshot.
+     */
+    private final BitSet changed = new BitSet();
+
+    /**
+     * The largest docID inserted.
      */
-    private final HashMap<String, PostingsList> index = new HashMap<>();
+    private int lastDocID = -1;
+
+
+    public HashedIndex()
+    {
+        this(new TermDictionary());
+    }
+
+    private HashedIndex(TermDictionary dictionary)
+    {
+        this.dictionary = dictionary;
+    }
 
 
     /**
-     * Inserts this token in the hashtable.
+     * Inserts this token in the index.
      */
     public void insert(String token, int docID, int offset)
     {
-        PostingsEntry entry = new PostingsEntry(docID, offset);
+        int termID = dictionary.lookup(token);
+        if (termID < 0) {
+            terms.writeLock().lock();
+            try {
+                termID = dictionary.add(token);
+            } finally {
+                terms.writeLock().unlock();
+            }
+        }
+        insert(termID, docID, offset);
+    }
+
+    /**
+     * Inserts the token <code>buf[start..start+length)</code> in the index.
+     */
+    public void insert(char[] buf, int start, int length, int docID, int offset)
+    {
+        int termID = dictionary.lookup(buf, start, length);
+        if (termID < 0) {
+            terms.writeLock().lock();
+            try {
+                termID = dictionary.add(buf, start, length);
+            } finally {
+                terms.writeLock().unlock();
+            }
+        }
+        insert(termID, docID, offset);
+    }
+
+    private void insert(int termID, int docID, int offset)
+    {
+        if (termID == postings.length) {
+            postings = Arrays.copyOf(postings, postings.length * 2);
+        }
+        PostingsList list = postings[termID];
+        if (list == null) {
+            list = new PostingsList();
+            postings[termID] = list;
+        }
+        list.add(docID, offset);
+        changed.set(termID);
+        if (docID > lastDocID) {
+            lastDocID = docID;
+        }
+    }
+
+    /**
+     * Appends the postings of a partial index, built over docIDs that all come
+     * after those already in this index. New terms get their identifiers in the
+     * order the partial index first saw them, so merging the partial indexes of
+     * consecutive docID ranges in order gives the same index as inserting all
+     * the tokens into this one.
+     */
+    public void merge(HashedIndex partial)
+    {
+        for (int partialID = 0; partialID < partial.dictionary.size(); partialID++) {
+            int termID = dictionary.add(partial.dictionary.getTerm(partialID));
+            if (termID == postings.length) {
+                postings = Arrays.copyOf(postings, postings.length * 2);
+            }
+            PostingsList list = postings[termID];
+            if (list == null) {
+                list = new PostingsList();
+                postings[termID] = list;
+            }
+            PostingsIterator it = partial.postings[partialID].iterator();
+            while (it.nextDoc() != PostingsIterator.NO_MORE_DOCS) {
+                list.add(it);
+            }
+        }
+    }
 
-        if (index.containsKey(token)) {
-            getPostings(token).add(entry);
-        } else {
+    /**
+     * Returns a new index of the documents of this one but those in
+     * <code>deleted</code>, followed by the documents of <code>delta</code>,
+     * whose docIDs all come after them. This index is left as it is, for the
+     * searches still using it. Only the postings lists that the delta or the
+     * deleted documents touch are copied; the new index shares the others.
+     *
+     * Only the statistics that change are computed again: the idf of every
+     * term, the bounds of the lists that were copied, and the norms of the
+     * documents of the delta. The other documents keep their norms, which
+     * drift a little from their tf-idf vectors as the number of documents
+     * changes. With <code>allNorms</code> every norm and bound is computed
+     * again, as by <code>cleanup</code>.
+     *
+     * @param gone The documents that are still in the doc tables but in
+     *             neither index, including the deleted ones.
+     */
+    public HashedIndex merge(HashedIndex delta, BitSet deleted, BitSet gone, boolean allNorms)
+    {
+        HashedIndex merged = new HashedIndex(new TermDictionary(dictionary));
+        merged.postings = Arrays.copyOf(postings, Math.max(postings.length, dictionary.size() + delta.dictionary.size()));
+        BitSet touched = new BitSet();
+        for (int termID = 0; termID < dictionary.size(); termID++) {
+            if (postings[termID].containsAny(deleted)) {
+                touched.set(termID);
+            }
+        }
+        int[] deltaTermIDs = new int[delta.dictionary.size()];
+        for (int id = 0; id < deltaTermIDs.length; id++) {
+            deltaTermIDs[id] = merged.dictionary.add(delta.dictionary, id);
+            touched.set(deltaTermIDs[id]);
+        }
+
+        // the lists that change are copied without the deleted documents,
+        // with the postings of the delta appended
+        for (int termID = touched.nextSetBit(0); termID >= 0; termID = touched.nextSetBit(termID + 1)) {
             PostingsList list = new PostingsList();
-            list.add(entry);
-            index.put(token, list);
+            if (termID < dictionary.size()) {
+                list.addAll(postings[termID], deleted);
+            }
+            merged.postings[termID] = list;
+        }
+        for (int id = 0; id < deltaTermIDs.length; id++) {
+            merged.postings[deltaTermIDs[id]].addAll(delta.postings[id], deleted);
+        }
+        for (int termID = 0; termID < merged.dictionary.size(); termID++) {
+            if (!touched.get(termID)) {
+                merged.postings[termID] = postings[termID].share();
+            }
+        }
+
+        if (allNorms) {
+            merged.norms = computeStatistics(merged.postings, merged.dictionary.size(), gone);
+            return merged;
+        }
+        double nrOfDocuments = 0;
+        double[] lengths = new double[maxDocID() + 1];
+        for (Map.Entry<Integer, Integer> doc : docLengths.entrySet()) {
+            if (!gone.get(doc.getKey())) {
+                lengths[doc.getKey()] = doc.getValue();
+                nrOfDocuments++;
+            }
+        }
+        for (int termID = 0; termID < merged.dictionary.size(); termID++) {
+            PostingsList list = merged.postings[termID];
+            list.compress();
+            list.setIDF(Math.log(nrOfDocuments / list.size()));
+        }
+
+        // the documents of the delta are the ones without a norm yet
+        BitSet added = new BitSet();
+        for (int docID : docLengths.keySet()) {
+            if (!gone.get(docID) && !docNorms.containsKey(docID)) {
+                added.set(docID);
+            }
+        }
+        double[] norms = new double[lengths.length];
+        for (int termID = touched.nextSetBit(0); termID >= 0; termID = touched.nextSetBit(termID + 1)) {
+            PostingsList list = merged.postings[termID];
+            PostingsIterator it = list.iterator();
+            for (int docID = it.nextDoc(); docID != PostingsIterator.NO_MORE_DOCS; docID = it.nextDoc()) {
+                if (added.get(docID)) {
+                    double weight = it.tf() * list.getIDF();
+                    norms[docID] += weight * weight;
+                }
+            }
+        }
+        for (int docID : docLengths.keySet()) {
+            if (gone.get(docID)) {
+                continue;
+            }
+            if (added.get(docID)) {
+                norms[docID] = Math.sqrt(norms[docID]);
+                docNorms.put(docID, norms[docID]);
+            } else {
+                norms[docID] = getDocNorm(docID, NormalizationType.EUCLIDEAN);
+            }
+            // a doc made only of terms found in every doc has no norm, it is divided by its length instead
+            if (norms[docID] == 0) {
+                norms[docID] = lengths[docID];
+            }
+        }
+        for (int termID = touched.nextSetBit(0); termID >= 0; termID = touched.nextSetBit(termID + 1)) {
+            merged.postings[termID].computeMaxImpact(NormalizationType.NUMBER_OF_WORDS, lengths);
+            merged.postings[termID].computeMaxImpact(NormalizationType.EUCLIDEAN, norms);
+        }
+        merged.norms = norms;
+        return merged;
+    }
+
+    /**
+     * Gives each document <code>d</code> the docID <code>newDocIDs[d]</code>
+     * in every postings list. This must be done before <code>cleanup</code>,
+     * which computes the statistics of the new lists.
+     */
+    public void renumber(int[] newDocIDs)
+    {
+        for (int termID = 0; termID < dictionary.size(); termID++) {
+            postings[termID] = postings[termID].renumber(newDocIDs);
         }
     }
 
@@ -46,7 +286,33 @@ public class HashedIndex implements Index
      */
     public PostingsList getPostings(String token)
     {
-        return index.get(token);
+        int termID = dictionary.lookup(token);
+        return termID < 0 || postings[termID].size() == 0 ? null : postings[termID];
+    }
+
+    /**
+     * Returns the postings for a term identifier.
+     */
+    public PostingsList getPostings(int termID)
+    {
+        return postings[termID];
+    }
+
+    /**
+     * Returns the term identifier of a word, or -1
+     * if the word is not in the index.
+     */
+    public int getTermID(String token)
+    {
+        return dictionary.lookup(token);
+    }
+
+    /**
+     * Returns the dictionary of this index.
+     */
+    public TermDictionary getDictionary()
+    {
+        return dictionary;
     }
 
     public int getNrOfDocuments()
@@ -55,9 +321,239 @@ public class HashedIndex implements Index
     }
 
     /**
-     * No need for cleanup in a HashedIndex.
+     * Returns the norm the score bounds of the document were computed with.
+     * A document that is not in this index, or has no norm, is divided by
+     * its length.
+     */
+    public double getDocNorm(int docID, NormalizationType normType)
+    {
+        double[] divisors = norms;
+        if (divisors == null) {
+            return Index.super.getDocNorm(docID, normType);
+        }
+        if (normType == NormalizationType.EUCLIDEAN && docID < divisors.length && divisors[docID] > 0) {
+            return divisors[docID];
+        }
+        return docLengths.get(docID);
+    }
+
+    /**
+     * Takes the norms of the documents from the doc tables, for an index read
+     * back with the score bounds that were computed with them.
+     */
+    public void loadNorms()
+    {
+        double[] loaded = new double[maxDocID() + 1];
+        for (Map.Entry<Integer, Double> doc : docNorms.entrySet()) {
+            if (doc.getKey() < loaded.length) {
+                loaded[doc.getKey()] = doc.getValue();
+            }
+        }
+        norms = loaded;
+    }
+
+    public void measure(IndexingStats.Sizes sizes)
+    {
+        PostingsList[] lists = postings;
+        int n = Math.min(dictionary.size(), lists.length);
+        sizes.terms += n;
+        sizes.dictionaryBytes += dictionary.heapBytes();
+        sizes.postingsBytes += 16 + 4L * lists.length;
+        for (int termID = 0; termID < n; termID++) {
+            PostingsList list = lists[termID];
+            if (list != null) {
+                sizes.postings += list.size();
+                sizes.postingsBytes += list.heapBytes();
+            }
+        }
+    }
+
+    /**
+     * Compresses all postings lists once indexing is done, and computes the
+     * statistics used at query time.
      */
     public void cleanup()
     {
+        cleanup(new BitSet());
+    }
+
+    /**
+     * Like <code>cleanup()</code>, for an index that the documents in
+     * <code>dropped</code> were removed from, while they are still in the
+     * doc tables.
+     */
+    public void cleanup(BitSet dropped)
+    {
+        norms = computeStatistics(postings, dictionary.size(), dropped);
+    }
+
+    /**
+     * Compresses the postings lists <code>lists[0..n)</code> of a complete
+     * index, and computes the statistics used at query time: the idf of every
+     * term, the Euclidean norm of every document, and the score bounds used
+     * to prune ranked queries. The documents in <code>dropped</code> are
+     * left out.
+     *
+     * @return What the score of each document is divided by for Euclidean
+     *         normalization, indexed by docID.
+     */
+    static double[] computeStatistics(PostingsList[] lists, int n, BitSet dropped)
+    {
+        double nrOfDocuments = 0;
+        double[] lengths = new double[maxDocID() + 1];
+        for (Map.Entry<Integer, Integer> doc : docLengths.entrySet()) {
+            if (!dropped.get(doc.getKey())) {
+                lengths[doc.getKey()] = doc.getValue();
+                nrOfDocuments++;
+            }
+        }
+
+        // idf of each term, and the squared norm of each doc: sum of (tf * idf)^2
+        double[] norms = new double[lengths.length];
+        for (int i = 0; i < n; i++) {
+            PostingsList list = lists[i];
+            list.compress();
+            double idf = Math.log(nrOfDocuments / list.size());
+            list.setIDF(idf);
+            PostingsIterator it = list.iterator();
+            for (int docID = it.nextDoc(); docID != PostingsIterator.NO_MORE_DOCS; docID = it.nextDoc()) {
+                double weight = it.tf() * idf;
+                norms[docID] += weight * weight;
+            }
+        }
+        for (int docID : docLengths.keySet()) {
+            if (dropped.get(docID)) {
+                continue;
+            }
+            norms[docID] = Math.sqrt(norms[docID]);
+            docNorms.put(docID, norms[docID]);
+            // a doc made only of terms found in every doc has no norm, it is divided by its length instead
+            if (norms[docID] == 0) {
+                norms[docID] = lengths[docID];
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            lists[i].computeMaxImpact(NormalizationType.NUMBER_OF_WORDS, lengths);
+            lists[i].computeMaxImpact(NormalizationType.EUCLIDEAN, norms);
+        }
+        return norms;
+    }
+
+    /**
+     * Returns the documents inserted so far, which must all be committed, as
+     * an index that does not change while more documents are inserted. This
+     * is for an index searched after a larger one, such as the delta of an
+     * IncrementalIndex, whose lists are not compressed.
+     *
+     * The snapshot shares the postings lists, which are only appended to, up
+     * to the last document it has. The score bounds are computed only for
+     * the lists that changed since the last snapshot, and only over the new
+     * postings, a document being divided by its norm, or by its length if it
+     * has none yet, as the Searcher does. A snapshot that finds a list from
+     * a later snapshot cuts it, and keeps its bounds, which still hold. The
+     * idf of the terms is that of the larger index.
+     */
+    public SearchableIndex snapshot()
+    {
+        terms.writeLock().lock();
+        try {
+            if (frozen.length < postings.length) {
+                frozen = Arrays.copyOf(frozen, postings.length);
+            }
+            for (int termID = changed.nextSetBit(0); termID >= 0; termID = changed.nextSetBit(termID + 1)) {
+                PostingsList before = frozen[termID];
+                PostingsList list = postings[termID].prefix(lastDocID);
+                int from = before == null ? 0 : before.size();
+                for (NormalizationType normType : NormalizationType.values()) {
+                    double max = before == null ? 0 : before.getMaxImpact(normType);
+                    for (int i = from; i < list.size(); i++) {
+                        int docID = list.getDocID(i);
+                        double norm = docLengths.containsKey(docID) ? getDocNorm(docID, normType) : 0;
+                        max = Math.max(max, norm > 0 ? list.getTF(i) / norm : Double.POSITIVE_INFINITY);
+                    }
+                    list.setMaxImpact(normType, max);
+                }
+                frozen[termID] = list;
+            }
+            changed.clear();
+            return new Snapshot(lastDocID);
+        } finally {
+            terms.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The documents of the index up to <code>upTo</code>.
+     */
+    private class Snapshot implements SearchableIndex
+    {
+        final int upTo;
+
+        Snapshot(int upTo)
+        {
+            this.upTo = upTo;
+        }
+
+        public PostingsList getPostings(String token)
+        {
+            PostingsList list;
+            terms.readLock().lock();
+            try {
+                int termID = dictionary.lookup(token);
+                list = termID < 0 || termID >= frozen.length ? null : frozen[termID];
+            } finally {
+                terms.readLock().unlock();
+            }
+            if (list != null && list.size() > 0 && list.getDocID(list.size() - 1) > upTo) {
+                list = list.boundedPrefix(upTo);
+            }
+            return list == null || list.size() == 0 ? null : list;
+        }
+
+        public int getNrOfDocuments()
+        {
+            return HashedIndex.this.getNrOfDocuments();
+        }
+    }
+
+    /**
+     * Writes the dictionary and the postings lists, in termID order.
+     */
+    public void writeTo(DataOutput out) throws IOException
+    {
+        out.writeInt(dictionary.size());
+        for (int termID = 0; termID < dictionary.size(); termID++) {
+            out.writeUTF(dictionary.getTerm(termID));
+            postings[termID].writeTo(out);
+        }
+    }
+
+    /**
+     * Reads an index written by <code>writeTo</code>. The terms get the same
+     * identifiers as in the index that was written.
+     */
+    public static HashedIndex readFrom(DataInput in) throws IOException
+    {
+        HashedIndex index = new HashedIndex();
+        int nrOfTerms = in.readInt();
+        index.postings = new PostingsList[Math.max(nrOfTerms, index.postings.length)];
+        for (int termID = 0; termID < nrOfTerms; termID++) {
+            index.dictionary.add(in.readUTF());
+            index.postings[termID] = PostingsList.readFrom(in);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the largest docID of the index, or -1 if it is empty.
+     */
+    private static int maxDocID()
+    {
+        int maxDocID = -1;
+        for (int docID : docLengths.keySet()) {
+            maxDocID = Math.max(maxDocID, docID);
+        }
+        return maxDocID;
     }
 }
@@ -0,0 +1,425 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * An index that can take new, changed and deleted documents after it has
+ * been built, without being built again.
+ *
+ * The documents indexed at first go into the main index. Once that one is
+ * complete, new documents go into a small main-memory delta index instead,
+ * and the docIDs of deleted documents get a tombstone that the Searcher
+ * filters out. A changed document is deleted and indexed again under a new
+ * docID. Now and then <code>mergeDelta</code> merges the delta into the
+ * main index and drops the postings of the deleted documents for good.
+ *
+ * Until then the idf of a term and the score bounds are those of the main
+ * index when it was last merged, which only drift a little since the delta
+ * is small compared to it. A merge into a main-memory main index computes
+ * the idf of every term again, but the norms only of the new documents,
+ * until the number of documents has changed by more than an eighth since
+ * every norm was last computed.
+ *
+ * Searches do not use this index itself but the views it publishes (see
+ * <code>view</code>), which a merge does not change: the delta is merged
+ * into a new main-memory main index, which shares the postings lists the
+ * merge does not change with the old one, and the doc table entries of the
+ * deleted documents stay until the views that still have them are released.
+ * A persistent main index is merged into in place, while no view is held.
+ *
+ * The modification time of every indexed file is kept, and stored next to
+ * a persistent main index (or a snapshot of a main-memory one), so that the
+ * files changed while the engine was not running can be found at the next
+ * start (see IndexWatcher).
+ */
+public class IncrementalIndex implements Index
+{
+    /**
+     * The file where the modification times are stored, as "docID;time" lines.
+     */
+    public static final String MANIFEST_FNAME = PersistentHashedIndex.INDEXDIR + "/manifest";
+
+    /**
+     * An indexed file.
+     */
+    private static class IndexedFile
+    {
+        final int docID;
+        final long modified;
+
+        IndexedFile(int docID, long modified)
+        {
+            this.docID = docID;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * The index built at first, where the delta is merged into.
+     */
+    private Index main;
+
+    /**
+     * The documents added since the last merge.
+     */
+    private HashedIndex delta = new HashedIndex();
+
+    /**
+     * The documents deleted since the last merge.
+     */
+    private final BitSet deleted = new BitSet();
+
+    /**
+     * The documents merged away, which are still in the doc tables for the
+     * views of the index before the merge.
+     */
+    private final BitSet dropped = new BitSet();
+
+    /**
+     * The indexed files, by name.
+     */
+    private final Map<String, IndexedFile> files = new HashMap<>();
+
+    /**
+     * False while the main index is being built.
+     */
+    private boolean built;
+
+    /**
+     * Stores a main-memory main index after it changed, or null. It gets
+     * the index and the documents that are merged away but still in the
+     * doc tables.
+     */
+    private BiConsumer<Index, BitSet> persister = null;
+
+    /**
+     * The number of documents when every norm was last computed.
+     */
+    private int normsNrOfDocuments;
+
+
+    /**
+     * @param main   The main index, a HashedIndex or a PersistentHashedIndex,
+     *               the two kinds the delta can be merged into.
+     * @param loaded True if the main index was loaded from disk, and not
+     *               built from scratch. The stored modification times are
+     *               then read back.
+     */
+    public IncrementalIndex(Index main, boolean loaded)
+    {
+        if (!(main instanceof HashedIndex) && !(main instanceof PersistentHashedIndex)) {
+            throw new IllegalArgumentException("Cannot merge into " + main.getClass().getSimpleName()
+                    + ", the main index must be a HashedIndex or a PersistentHashedIndex");
+        }
+        this.main = main;
+        this.built = loaded;
+        if (loaded) {
+            readManifest();
+            normsNrOfDocuments = getNrOfDocuments();
+        }
+    }
+
+    /**
+     * Inserts a token into the main index while it is built, and into the
+     * delta afterwards.
+     */
+    public void insert(String token, int docID, int offset)
+    {
+        if (built) {
+            delta.insert(token, docID, offset);
+        } else {
+            main.insert(token, docID, offset);
+        }
+    }
+
+    public void insert(char[] buf, int start, int length, int docID, int offset)
+    {
+        if (built) {
+            delta.insert(buf, start, length, docID, offset);
+        } else {
+            main.insert(buf, start, length, docID, offset);
+        }
+    }
+
+    /**
+     * Commits a document to the index its tokens were inserted into.
+     */
+    public void commit(int docID, String name, int length)
+    {
+        commit(docID, name, length, -1);
+    }
+
+    /**
+     * Commits a document to the index its tokens were inserted into, and
+     * records the modification time its file had when it was read.
+     */
+    public void commit(int docID, String name, int length, long modified)
+    {
+        if (built) {
+            delta.commit(docID, name, length);
+        } else {
+            main.commit(docID, name, length);
+        }
+        files.put(name, new IndexedFile(docID, modified));
+    }
+
+    /**
+     * Returns the postings of the term in the main index followed by those in
+     * the delta, which all have larger docIDs, as a list that reads through
+     * both without copying them (see <code>PostingsList.concat</code>). It is
+     * only valid until the index changes. Deleted documents are still in
+     * there, until the next merge.
+     */
+    public PostingsList getPostings(String token)
+    {
+        List<PostingsList> parts = new ArrayList<>(2);
+        for (Index part : new Index[]{main, delta}) {
+            PostingsList postings = part.getPostings(token);
+            if (postings != null) {
+                parts.add(postings);
+            }
+        }
+        return parts.isEmpty() ? null : PostingsList.concat(parts);
+    }
+
+    /**
+     * Sets what stores a main-memory main index, such as a snapshot, each
+     * time it is built or merged into. The modification times are then
+     * stored along with it.
+     */
+    public void setPersister(BiConsumer<Index, BitSet> persister)
+    {
+        this.persister = persister;
+    }
+
+    public boolean isDeleted(int docID)
+    {
+        return deleted.get(docID);
+    }
+
+    public void measure(IndexingStats.Sizes sizes)
+    {
+        main.measure(sizes);
+        delta.measure(sizes);
+    }
+
+    public int getNrOfDocuments()
+    {
+        synchronized (dropped) {
+            return docLengths.size() - deleted.cardinality() - dropped.cardinality();
+        }
+    }
+
+    /**
+     * Called once the main index is built, and on exit. The first time the
+     * main index is completed, later on the delta is merged into it.
+     */
+    public void cleanup()
+    {
+        if (built) {
+            dropDocs(mergeDelta());
+            return;
+        }
+        main.cleanup();
+        built = true;
+        normsNrOfDocuments = getNrOfDocuments();
+        persist(new BitSet());
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     * Returns the modification time the file had when it was indexed, or
+     * -1 if it is not in the index.
+     */
+    public long getModified(String fileName)
+    {
+        IndexedFile file = files.get(fileName);
+        return file == null ? -1 : file.modified;
+    }
+
+    /**
+     * Returns the names of all the indexed files.
+     */
+    public List<String> getFileNames()
+    {
+        return new ArrayList<>(files.keySet());
+    }
+
+    /**
+     * Deletes the document of a file from the index.
+     *
+     * @return False if the file was not in the index.
+     */
+    public boolean deleteFile(String fileName)
+    {
+        IndexedFile file = files.remove(fileName);
+        if (file == null) {
+            return false;
+        }
+        deleted.set(file.docID);
+        return true;
+    }
+
+    /**
+     * Returns true if documents were added or deleted since the last merge.
+     */
+    public boolean hasChanges()
+    {
+        return delta.getDictionary().size() > 0 || !deleted.isEmpty();
+    }
+
+    /**
+     * Returns true if <code>mergeDelta</code> changes the main index in
+     * place, so that no view of it may be searched meanwhile.
+     */
+    public boolean mergesInPlace()
+    {
+        return main instanceof PersistentHashedIndex;
+    }
+
+    /**
+     * Merges the delta into the main index, drops the deleted documents
+     * from it and computes its statistics again.
+     *
+     * @return The documents whose doc table entries are to be dropped with
+     *         <code>dropDocs</code> once no view that has them is held.
+     */
+    public BitSet mergeDelta()
+    {
+        BitSet merged = new BitSet();
+        if (!hasChanges()) {
+            return merged;
+        }
+        if (main instanceof HashedIndex) {
+            // the views published so far search the old main index, so the
+            // delta is merged into a new one
+            merged.or(deleted);
+            BitSet gone;
+            int nrOfDocuments;
+            synchronized (dropped) {
+                dropped.or(deleted);
+                gone = (BitSet) dropped.clone();
+                nrOfDocuments = docLengths.size() - gone.cardinality();
+            }
+            boolean allNorms = 8L * Math.abs(nrOfDocuments - normsNrOfDocuments) > normsNrOfDocuments;
+            main = ((HashedIndex) main).merge(delta, deleted, gone, allNorms);
+            if (allNorms) {
+                normsNrOfDocuments = nrOfDocuments;
+            }
+            delta = new HashedIndex();
+            deleted.clear();
+            persist(gone);
+        } else {
+            // a PersistentHashedIndex, the constructor takes no other kind
+            for (int docID = deleted.nextSetBit(0); docID >= 0; docID = deleted.nextSetBit(docID + 1)) {
+                docNames.remove(docID);
+                docLengths.remove(docID);
+                docNorms.remove(docID);
+            }
+            ((PersistentHashedIndex) main).merge(delta, deleted);
+            delta = new HashedIndex();
+            deleted.clear();
+            persist(new BitSet());
+        }
+        return merged;
+    }
+
+    /**
+     * Removes the doc table entries of documents merged away.
+     */
+    public void dropDocs(BitSet docIDs)
+    {
+        synchronized (dropped) {
+            for (int docID = docIDs.nextSetBit(0); docID >= 0; docID = docIDs.nextSetBit(docID + 1)) {
+                docNames.remove(docID);
+                docLengths.remove(docID);
+                docNorms.remove(docID);
+            }
+            dropped.andNot(docIDs);
+        }
+    }
+
+    /**
+     * Returns a view of the index as it is now, for searches to use while
+     * it changes. It has a snapshot of the delta, which shares its postings
+     * lists, and computes the bounds only of the ones that changed since the
+     * last view (see <code>HashedIndex.snapshot</code>).
+     */
+    public IndexView view()
+    {
+        List<SearchableIndex> segments = new ArrayList<>();
+        segments.add(main);
+        if (delta.getDictionary().size() > 0) {
+            segments.add(delta.snapshot());
+        }
+        return new IndexView(segments, deleted, getNrOfDocuments());
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     * Stores the main index, which now holds every indexed file, unless it
+     * is persistent already, and the modification times next to it. The
+     * documents in <code>gone</code> are still in the doc tables, but not
+     * in the index.
+     */
+    private void persist(BitSet gone)
+    {
+        if (persister != null) {
+            persister.accept(main, gone);
+        } else if (!(main instanceof PersistentHashedIndex)) {
+            return;
+        }
+        try (PrintWriter out = new PrintWriter(new FileWriter(MANIFEST_FNAME))) {
+            for (IndexedFile file : files.values()) {
+                out.println(file.docID + ";" + file.modified);
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: could not write " + MANIFEST_FNAME);
+        }
+    }
+
+    /**
+     * Reads the modification times of the documents of the main index.
+     * A document without one is taken as changed, and indexed again.
+     */
+    private void readManifest()
+    {
+        Map<Integer, Long> modified = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(MANIFEST_FNAME))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] data = line.split(";");
+                modified.put(Integer.valueOf(data[0]), Long.valueOf(data[1]));
+            }
+        } catch (FileNotFoundException e) {
+            // every document is indexed again
+        } catch (IOException e) {
+            System.err.println("Warning: could not read " + MANIFEST_FNAME);
+        }
+        for (Map.Entry<Integer, String> doc : docNames.entrySet()) {
+            files.put(doc.getValue(), new IndexedFile(doc.getKey(), modified.getOrDefault(doc.getKey(), -1L)));
+        }
+    }
+}
@@ -7,23 +7,34 @@
 
 package ir;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Defines some common data structures and methods that all types of
  * index should implement.
  */
-public interface Index
+public interface Index extends SearchableIndex
 {
+    /*
+     * The document tables are concurrent maps, since documents may be
+     * committed by several indexing threads while they are searched.
+     */
+
     /**
      * Mapping from document identifiers to document names.
      */
-    HashMap<Integer, String> docNames = new HashMap<>();
+    ConcurrentHashMap<Integer, String> docNames = new ConcurrentHashMap<>();
 
     /**
      * Mapping from document identifier to document length.
      */
-    HashMap<Integer, Integer> docLengths = new HashMap<>();
+    ConcurrentHashMap<Integer, Integer> docLengths = new ConcurrentHashMap<>();
+
+    /**
+     * Mapping from document identifier to the Euclidean length of the
+     * document's tf-idf vector. Filled in once indexing is done.
+     */
+    ConcurrentHashMap<Integer, Double> docNorms = new ConcurrentHashMap<>();
 
 
     // NEW
@@ -39,14 +50,52 @@ public interface Index
     void insert(String token, int docID, int offset);
 
     /**
-     * Returns the postings for a given term.
+     * Inserts the token <code>buf[start..start+length)</code> into the index.
+     * An index that can look the token up without making a String of it
+     * should do so.
+     */
+    default void insert(char[] buf, int start, int length, int docID, int offset)
+    {
+        insert(new String(buf, start, length), docID, offset);
+    }
+
+    /**
+     * Records that all the tokens of document <code>docID</code> have been
+     * inserted. Until then, an index may leave the document out of searches.
+     */
+    default void commit(int docID, String name, int length)
+    {
+        docNames.put(docID, name);
+        docLengths.put(docID, length);
+    }
+
+    /**
+     * Commits a document like <code>commit(docID, name, length)</code>, for a
+     * file that had modification time <code>modified</code> when it was read,
+     * or -1 if that is not known. Only an index that keeps track of the
+     * files needs the time.
+     */
+    default void commit(int docID, String name, int length, long modified)
+    {
+        commit(docID, name, length);
+    }
+
+    /**
+     * Records that document <code>docID</code> could not be indexed, and drops
+     * whatever tokens of it were inserted. It is never committed.
      */
-    PostingsList getPostings(String token);
+    default void discard(int docID)
+    {
+    }
 
     /**
-     * Returns the number of documents in the index
+     * Adds the number of terms and postings of the part of the index that is
+     * in memory, and the heap they take, to <code>sizes</code>. It may be
+     * called while the index changes, and then only gives estimates.
      */
-    int getNrOfDocuments();
+    default void measure(IndexingStats.Sizes sizes)
+    {
+    }
 
     /**
      * This method is called on exit.
@@ -0,0 +1,167 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A binary snapshot of a complete HashedIndex, written once indexing is
+ * done so that the next start can load it instead of indexing again.
+ *
+ * The file holds, in this order:
+ *
+ *   MAGIC, VERSION
+ *   the indexed directories
+ *   the doc tables: docID, name, length and norm of every document
+ *   the dictionary and the postings lists (HashedIndex.writeTo), which
+ *     are already compressed and carry their idf and score bounds
+ *   the k-gram index (KGramIndex.writeTo)
+ *
+ * Loading decodes no tokens and computes no statistics, it only reads the
+ * compressed postings back into memory, one sequential pass over the file.
+ * The whole index is on the heap once it is loaded, as if it had been built.
+ */
+public class IndexSnapshot
+{
+    /**
+     * The file the snapshot is written to.
+     */
+    public static final String SNAPSHOT_FNAME = PersistentHashedIndex.INDEXDIR + "/snapshot";
+
+    /**
+     * The first int of a snapshot file ("IRSN").
+     */
+    public static final int MAGIC = 0x4952534e;
+
+    /**
+     * Changes whenever the layout of the file does.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The directories the index was built from.
+     */
+    public final List<String> dirNames;
+
+    /**
+     * The index.
+     */
+    public final HashedIndex index;
+
+    /**
+     * The k-gram index.
+     */
+    public final KGramIndex kgIndex;
+
+
+    private IndexSnapshot(List<String> dirNames, HashedIndex index, KGramIndex kgIndex)
+    {
+        this.dirNames = dirNames;
+        this.index = index;
+        this.kgIndex = kgIndex;
+    }
+
+    /**
+     * Writes a snapshot of the index, the doc tables and the k-gram index.
+     * The snapshot is written to a temporary file first and then moved in
+     * place, so that a crash never leaves half a snapshot behind.
+     */
+    public static void write(String fileName, List<String> dirNames, HashedIndex index, KGramIndex kgIndex) throws IOException
+    {
+        write(fileName, dirNames, index, kgIndex, new BitSet());
+    }
+
+    /**
+     * Writes a snapshot like <code>write</code> above, leaving out the
+     * documents in <code>dropped</code>, which are still in the doc tables
+     * but not in the index any more.
+     */
+    public static void write(String fileName, List<String> dirNames, HashedIndex index, KGramIndex kgIndex, BitSet dropped) throws IOException
+    {
+        Path file = Paths.get(fileName);
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = Paths.get(fileName + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp.toFile()), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dirNames.size());
+            for (String dirName : dirNames) {
+                out.writeUTF(dirName);
+            }
+            List<Map.Entry<Integer, String>> docs = new ArrayList<>();
+            for (Map.Entry<Integer, String> doc : Index.docNames.entrySet()) {
+                if (!dropped.get(doc.getKey())) {
+                    docs.add(doc);
+                }
+            }
+            out.writeInt(docs.size());
+            for (Map.Entry<Integer, String> doc : docs) {
+                out.writeInt(doc.getKey());
+                out.writeUTF(doc.getValue());
+                out.writeInt(Index.docLengths.get(doc.getKey()));
+                out.writeDouble(Index.docNorms.getOrDefault(doc.getKey(), Double.NaN));
+            }
+            index.writeTo(out);
+            kgIndex.writeTo(out);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot, and puts its documents in the doc tables.
+     *
+     * @param dirNames The directories the index must have been built from.
+     * @return The snapshot, or null if there is no snapshot of these directories.
+     */
+    public static IndexSnapshot read(String fileName, List<String> dirNames) throws IOException
+    {
+        Path file = Paths.get(fileName);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.toFile()), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(fileName + " is not a snapshot of this version");
+            }
+            int nrOfDirs = in.readInt();
+            List<String> snapshotDirNames = new ArrayList<>(nrOfDirs);
+            for (int i = 0; i < nrOfDirs; i++) {
+                snapshotDirNames.add(in.readUTF());
+            }
+            if (!snapshotDirNames.equals(dirNames)) {
+                return null;
+            }
+            int nrOfDocs = in.readInt();
+            for (int i = 0; i < nrOfDocs; i++) {
+                int docID = in.readInt();
+                Index.docNames.put(docID, in.readUTF());
+                Index.docLengths.put(docID, in.readInt());
+                double norm = in.readDouble();
+                if (!Double.isNaN(norm)) {
+                    Index.docNorms.put(docID, norm);
+                }
+            }
+            HashedIndex index = HashedIndex.readFrom(in);
+            index.loadNorms();
+            KGramIndex kgIndex = KGramIndex.readFrom(in);
+            return new IndexSnapshot(dirNames, index, kgIndex);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A read-only view of the index as it was when the view was published, made
+ * of complete segments that are never changed afterwards: the main index,
+ * and maybe a snapshot of the documents added since it was built. Searches run
+ * on a view while the indexer goes on changing its own index, and publishes
+ * a new view once it is done (see SearcherManager).
+ *
+ * A view counts the searches holding it. Once it has been replaced by a newer
+ * view and the last of them is released, the segments only this view used can
+ * be dropped.
+ *
+ * The doc tables are shared by every view: entries are only added for the
+ * documents of later views, and the entries of deleted documents are only
+ * removed once no view that has them is held. A view divides the scores by
+ * the norms its main index was built or merged with, which its score bounds
+ * hold for, and not by those a later merge computes.
+ */
+public class IndexView implements SearchableIndex
+{
+    /**
+     * The segments, in docID order.
+     */
+    private final List<SearchableIndex> segments;
+
+    /**
+     * The deleted documents, still in some segments.
+     */
+    private final BitSet deleted;
+
+    private final int nrOfDocuments;
+
+    /**
+     * Number of holders of this view: the searches using it, and the
+     * SearcherManager while it is the current view.
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /**
+     * Run once the view is released for the last time.
+     */
+    private volatile Runnable onClose = null;
+
+    /**
+     * The searcher of this view, set when it is published.
+     */
+    private volatile Searcher searcher;
+
+
+    /**
+     * @param segments      Indexes that do not change any more, such as complete
+     *                      indexes and snapshots.
+     * @param deleted       The deleted documents, which is copied.
+     * @param nrOfDocuments Number of documents in the view, leaving out the deleted ones.
+     */
+    public IndexView(List<? extends SearchableIndex> segments, BitSet deleted, int nrOfDocuments)
+    {
+        this.segments = new ArrayList<>(segments);
+        this.deleted = (BitSet) deleted.clone();
+        this.nrOfDocuments = nrOfDocuments;
+    }
+
+    /**
+     * A view of one complete index.
+     */
+    public IndexView(Index index)
+    {
+        this(Collections.singletonList(index), new BitSet(), index.getNrOfDocuments());
+    }
+
+    /**
+     * Returns a view of an empty index.
+     */
+    public static IndexView empty()
+    {
+        return new IndexView(Collections.emptyList(), new BitSet(), 0);
+    }
+
+    /**
+     * Returns the postings of the term in every segment, one after the other,
+     * as a list that reads through the lists of the segments without copying
+     * them (see <code>PostingsList.concat</code>). It has the idf of the term
+     * in the main index, and bounds that hold for every segment. Deleted
+     * documents are still in there.
+     */
+    public PostingsList getPostings(String token)
+    {
+        List<PostingsList> parts = new ArrayList<>(segments.size());
+        for (SearchableIndex segment : segments) {
+            PostingsList part = segment.getPostings(token);
+            if (part != null) {
+                parts.add(part);
+            }
+        }
+        return parts.isEmpty() ? null : PostingsList.concat(parts);
+    }
+
+    public boolean isDeleted(int docID)
+    {
+        return deleted.get(docID);
+    }
+
+    public int getNrOfDocuments()
+    {
+        return nrOfDocuments;
+    }
+
+    /**
+     * Returns the norm of the document in the main index. The documents of
+     * the later segments have none there, and are divided by their length.
+     */
+    public double getDocNorm(int docID, NormalizationType normType)
+    {
+        if (segments.isEmpty()) {
+            return SearchableIndex.super.getDocNorm(docID, normType);
+        }
+        return segments.get(0).getDocNorm(docID, normType);
+    }
+
+    /**
+     * Returns the searcher searching this view.
+     */
+    public Searcher getSearcher()
+    {
+        return searcher;
+    }
+
+    void setSearcher(Searcher searcher)
+    {
+        this.searcher = searcher;
+    }
+
+    void setOnClose(Runnable onClose)
+    {
+        this.onClose = onClose;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     * Takes one more hold of the view, unless it was closed already.
+     */
+    boolean tryAcquire()
+    {
+        while (true) {
+            int n = refs.get();
+            if (n == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes one more hold of the view, even if it was closed already, for
+     * SearcherManager to publish it again.
+     */
+    void reopen()
+    {
+        refs.incrementAndGet();
+    }
+
+    /**
+     * Returns true if the view is held, and so not closed.
+     */
+    boolean isHeld()
+    {
+        return refs.get() > 0;
+    }
+
+    /**
+     * Releases a hold of the view, taken by <code>SearcherManager.acquire</code>.
+     */
+    public void release()
+    {
+        int n = refs.decrementAndGet();
+        if (n < 0) {
+            throw new IllegalStateException("IndexView released more often than acquired");
+        }
+        Runnable action = onClose;
+        if (n == 0 && action != null) {
+            action.run();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an IncrementalIndex up to date with the indexed directories.
+ *
+ * At start, the files are compared with the modification times they had
+ * when they were indexed, so that what changed while the engine was not
+ * running is indexed again. Then every directory is watched with a
+ * WatchService: new and changed files are indexed into the delta, and
+ * deleted ones get a tombstone. The delta is merged into the main index
+ * once enough documents changed, or some time after the first change.
+ *
+ * Only this thread changes the index once it is built. Searches use the
+ * views it publishes after each batch of changes, and after each merge.
+ */
+public class IndexWatcher
+{
+    /**
+     * The delta is merged at the latest this many milliseconds after a change...
+     */
+    public static final long MERGE_INTERVAL = 60000;
+
+    /**
+     * ...or as soon as this many documents were added or deleted.
+     */
+    public static final int MERGE_CHANGES = 1000;
+
+    private final Indexer indexer;
+    private final IncrementalIndex index;
+    private final List<Path> roots = new ArrayList<>();
+    private final SearcherManager searchers;
+
+    private WatchService watchService;
+
+    /**
+     * Number of documents added or deleted since the last merge.
+     */
+    private int changes = 0;
+
+    /**
+     * When the first change since the last merge was seen.
+     */
+    private long firstChange;
+
+    /**
+     * True if the index changed since a view of it was last published.
+     */
+    private boolean unpublished = false;
+
+    /**
+     * True if the directories are to be watched and compared with the index
+     * again: at start, and after an event could not be handled.
+     */
+    private boolean stale = true;
+
+
+    /**
+     * @param indexer   The indexer the files are indexed with. Its index must be <code>index</code>.
+     * @param index     The index to keep up to date.
+     * @param dirNames  The indexed directories.
+     * @param searchers Where the views of the index are published.
+     */
+    public IndexWatcher(Indexer indexer, IncrementalIndex index, List<String> dirNames, SearcherManager searchers)
+    {
+        this.indexer = indexer;
+        this.index = index;
+        this.searchers = searchers;
+        for (String dirName : dirNames) {
+            roots.add(Paths.get(dirName));
+        }
+    }
+
+    /**
+     * Starts watching on a thread of its own.
+     */
+    public void start()
+    {
+        Thread thread = new Thread(this::run, "index-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run()
+    {
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            watchService = service;
+            for (int docID : Index.docNames.keySet()) {
+                indexer.skipDocIDs(docID);
+            }
+            while (true) {
+                WatchKey key = service.poll(1, TimeUnit.SECONDS);
+                try {
+                    if (key != null) {
+                        handle(key);
+                    }
+                    if (stale) {
+                        // the directories are watched before they are scanned,
+                        // so that nothing that changes in between is missed
+                        stale = false;
+                        for (Path root : roots) {
+                            register(root);
+                        }
+                        rescan();
+                    }
+                } catch (IOException e) {
+                    // such as a directory deleted before it could be watched:
+                    // what the event was about is found by scanning again
+                    System.err.println("Warning: IOException while watching the indexed directories, scanning them again: " + e.getMessage());
+                    stale = true;
+                }
+                publish();
+                if (changes >= MERGE_CHANGES || (changes > 0 && System.currentTimeMillis() - firstChange >= MERGE_INTERVAL)) {
+                    merge();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: could not watch the indexed directories, the index is not updated.");
+        } catch (InterruptedException e) {
+            // the engine is shutting down
+        }
+    }
+
+    /**
+     * Watches a directory and all the directories under it.
+     */
+    private void register(Path dir) throws IOException
+    {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+            {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e)
+            {
+                // an IO error could occur
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Compares all the files with the index: indexes the files that are new
+     * or changed, and deletes the documents whose file is gone.
+     */
+    private void rescan() throws InterruptedException
+    {
+        Set<String> found = new HashSet<>();
+        for (Path root : roots) {
+            FileCrawler.walk(root, file -> {
+                found.add(file.toString());
+                update(file);
+            });
+        }
+        for (String fileName : index.getFileNames()) {
+            if (!found.contains(fileName)) {
+                delete(fileName);
+            }
+        }
+    }
+
+    /**
+     * Handles the events of a key. If one of them fails, the ones after it
+     * are dropped, and the caller is to scan again.
+     */
+    private void handle(WatchKey key) throws IOException, InterruptedException
+    {
+        Path dir = (Path) key.watchable();
+        try {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // some events were lost
+                    rescan();
+                    continue;
+                }
+                Path path = dir.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    delete(path.toString());
+                } else if (Files.isDirectory(path)) {
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        register(path);
+                        FileCrawler.walk(path, this::update);
+                    }
+                } else {
+                    update(path);
+                }
+            }
+        } finally {
+            key.reset();
+        }
+    }
+
+    /**
+     * Indexes a file again if it changed since it was indexed.
+     */
+    private void update(Path file)
+    {
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            // deleted since, the event for that follows
+            return;
+        }
+        String fileName = file.toString();
+        if (index.getModified(fileName) == modified) {
+            return;
+        }
+        index.deleteFile(fileName);
+        indexer.processFile(file);
+        changed();
+    }
+
+    /**
+     * Deletes a file from the index, or all the files under it if it was a directory.
+     */
+    private void delete(String fileName)
+    {
+        if (index.deleteFile(fileName)) {
+            changed();
+            return;
+        }
+        String prefix = fileName + File.separator;
+        for (String indexed : index.getFileNames()) {
+            if (indexed.startsWith(prefix)) {
+                index.deleteFile(indexed);
+                changed();
+            }
+        }
+    }
+
+    private void changed()
+    {
+        unpublished = true;
+        if (changes++ == 0) {
+            firstChange = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Publishes a view of the index, if it changed since the last one.
+     */
+    private void publish()
+    {
+        if (unpublished) {
+            searchers.publish(index.view());
+            unpublished = false;
+        }
+    }
+
+    private void merge() throws InterruptedException
+    {
+        long startTime = System.currentTimeMillis();
+        if (index.mergesInPlace()) {
+            searchers.exclusive(() -> {
+                index.dropDocs(index.mergeDelta());
+                return index.view();
+            });
+        } else {
+            BitSet merged = index.mergeDelta();
+            searchers.publish(index.view(), () -> index.dropDocs(merged));
+        }
+        unpublished = false;
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        System.err.println("Merged " + changes + " changed documents into the index in " + elapsedTime + " ms");
+        changes = 0;
+    }
+}
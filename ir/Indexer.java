@@ -10,7 +10,15 @@
 package ir;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -39,6 +47,27 @@ public class Indexer
      */
     String patterns_file;
 
+    /**
+     * How documents are tokenized, read from the patterns file once.
+     */
+    final TokenizerConfig tokenizerConfig;
+
+    /**
+     * The Tokenizer of each thread indexing, reused from one document to the next.
+     */
+    private final ThreadLocal<Tokenizer> tokenizers;
+
+    /**
+     * The tokens of the document each thread is indexing, in a buffer that is
+     * reused from one document to the next.
+     */
+    private final ThreadLocal<TokenBuffer> tokenBuffers = ThreadLocal.withInitial(TokenBuffer::new);
+
+    /**
+     * What this Indexer did so far.
+     */
+    final IndexingStats stats;
+
 
     /* ----------------------------------------------- */
 
@@ -51,21 +80,69 @@ public class Indexer
         this.index = index;
         this.kgIndex = kgIndex;
         this.patterns_file = patterns_file;
+        this.tokenizerConfig = new TokenizerConfig(true, false, true, patterns_file);
+        this.tokenizers = ThreadLocal.withInitial(() -> new Tokenizer(tokenizerConfig));
+        this.stats = new IndexingStats(index);
+    }
+
+
+    /**
+     * Returns the Tokenizer of this thread, reset to read the UTF-8 text
+     * in <code>contents</code>.
+     */
+    Tokenizer tokenizer(ByteBuffer contents)
+    {
+        Tokenizer tok = tokenizers.get();
+        tok.reset(contents);
+        return tok;
     }
 
 
     /**
      * Generates a new document identifier as an integer.
      */
-    private int generateDocID()
+    int generateDocID()
     {
         return lastDocID++;
     }
 
 
+    /**
+     * Returns the docID the next document will get.
+     */
+    int peekDocID()
+    {
+        return lastDocID;
+    }
+
+
+    /**
+     * Makes the docIDs generated from now on larger than <code>docID</code>,
+     * which is already in use in an index loaded from disk.
+     */
+    void skipDocIDs(int docID)
+    {
+        lastDocID = Math.max(lastDocID, docID + 1);
+    }
+
+
+    /**
+     * Number of threads reading files ahead of <code>processFiles</code>.
+     */
+    private static final int PREFETCH_THREADS = 4;
+
+    /**
+     * Maximum number of files read ahead of <code>processFiles</code>.
+     */
+    private static final int PREFETCH = 64;
+
+
     /**
      * Tokenizes and indexes the file @code{f}. If <code>f</code> is a directory,
      * all its files and subdirectories are recursively processed.
+     *
+     * The files are read by a FileCrawler while the ones before them are
+     * tokenized, so the tokenizer does not wait for the disk.
      */
     // NEW 3.3
     public void processFiles(File f, boolean is_indexing) {
@@ -77,31 +154,297 @@ public class Indexer
             return;
         }
 
-        if (f.isDirectory()) {
-            String[] fs = f.list();
-            // an IO error could occur
-            if (fs != null) {
-                for (String s : fs) {
-                    processFiles(new File(f, s), true);
+        try {
+            new FileCrawler(PREFETCH_THREADS, PREFETCH, stats).crawl(f.toPath(), (file, contents, modified) -> {
+                // First register the document and get a docID
+                int docID = generateDocID();
+                if (docID % 1000 == 0) System.err.println("Indexed " + docID + " files");
+                int length = contents == null ? -1 : indexContents(contents, docID, index);
+                if (length >= 0) {
+                    index.commit(docID, file.toString(), length, modified);
+                } else {
+                    System.err.println("Warning: IOException during indexing.");
+                    index.discard(docID);
                 }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Tokenizes and indexes one file as a new document.
+     *
+     * @return The docID of the document, or -1 if the file could not be read.
+     */
+    public int processFile(Path file)
+    {
+        int docID = generateDocID();
+        long modified = FileCrawler.lastModified(file);
+        int length;
+        try {
+            length = indexContents(load(file), docID, index);
+        } catch (IOException e) {
+            length = -1;
+        }
+        if (length < 0) {
+            System.err.println("Warning: IOException during indexing.");
+            index.discard(docID);
+            return -1;
+        }
+        index.commit(docID, file.toString(), length, modified);
+        return docID;
+    }
+
+
+    /**
+     * Reads a whole file, and counts it in the statistics.
+     */
+    private ByteBuffer load(Path file) throws IOException
+    {
+        long startTime = System.nanoTime();
+        ByteBuffer contents = FileCrawler.load(file);
+        stats.read(System.nanoTime() - startTime, contents.remaining());
+        return contents;
+    }
+
+
+    /**
+     * Tokenizes the UTF-8 bytes in <code>contents</code> and inserts the tokens
+     * into <code>target</code> as document <code>docID</code>. The document is
+     * tokenized before any token is inserted, so that the statistics can tell
+     * the time of each apart.
+     *
+     * @return The number of tokens, or -1 if the contents could not be read.
+     */
+    private int indexContents(ByteBuffer contents, int docID, Index target)
+    {
+        long startTime = System.nanoTime();
+        TokenBuffer tokens = tokenBuffers.get();
+        tokens.clear();
+        try {
+            tokenizer(contents).tokenize(tokens);
+        } catch (IOException e) {
+            return -1;
+        }
+        long tokenizedTime = System.nanoTime();
+        char[] chars = tokens.getChars();
+        for (int offset = 0; offset < tokens.size(); offset++) {
+            target.insert(chars, tokens.start(offset), tokens.length(offset), docID, offset);
+        }
+        stats.tokenized(tokenizedTime - startTime);
+        stats.inserted(System.nanoTime() - tokenizedTime, tokens.size());
+        return tokens.size();
+    }
+
+
+    /* ----------------------------------------------- */
+
+    /**
+     * Lists the files under <code>f</code> in the order <code>processFiles</code>
+     * would index them.
+     */
+    private void listFiles(File f, List<Path> files)
+    {
+        if (!f.canRead()) {
+            return;
+        }
+        try {
+            FileCrawler.walk(f.toPath(), files::add);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * The documents of one contiguous docID range, indexed by one worker
+     * into a partial index of its own.
+     */
+    private static class Partial
+    {
+        final HashedIndex index = new HashedIndex();
+        final int firstDocID;
+        final String[] docNames;
+        final int[] docLengths;
+        final long[] modified;
+
+        Partial(int firstDocID, int nrOfDocs)
+        {
+            this.firstDocID = firstDocID;
+            docNames = new String[nrOfDocs];
+            docLengths = new int[nrOfDocs];
+            modified = new long[nrOfDocs];
+        }
+    }
+
+
+    /**
+     * Tokenizes and indexes all files under <code>f</code> with
+     * <code>nrOfThreads</code> worker threads.
+     *
+     * The files are listed first and get the docIDs <code>processFiles</code>
+     * would give them. They are then cut into contiguous docID ranges, and
+     * each range is indexed by a worker into a partial index of its own, so
+     * the workers share nothing. The partial indexes are merged into the
+     * index in docID order, which gives exactly the index the serial path
+     * builds. Only a HashedIndex can be built this way; a ConcurrentHashedIndex
+     * is built by <code>processFilesConcurrently</code>, and any other index
+     * by <code>processFiles</code>.
+     *
+     * See <code>processFilesPipelined</code> for the other way to use several threads.
+     */
+    public void processFilesInParallel(File f, boolean is_indexing, int nrOfThreads)
+    {
+        if (is_indexing && index instanceof ConcurrentHashedIndex) {
+            processFilesConcurrently(f, nrOfThreads);
+            return;
+        }
+        if (!is_indexing || nrOfThreads <= 1 || !(index instanceof HashedIndex)) {
+            processFiles(f, is_indexing);
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        listFiles(f, files);
+        int firstDocID = lastDocID;
+        lastDocID += files.size();
+
+        // a few ranges per thread, so that a slow range doesn't keep the others waiting
+        int nrOfRanges = Math.min(files.size(), nrOfThreads * 4);
+        ExecutorService workers = Executors.newFixedThreadPool(nrOfThreads);
+        try {
+            List<Future<Partial>> partials = new ArrayList<>();
+            for (int r = 0; r < nrOfRanges; r++) {
+                int from = (int) ((long) files.size() * r / nrOfRanges);
+                int to = (int) ((long) files.size() * (r + 1) / nrOfRanges);
+                partials.add(workers.submit(() -> indexRange(files, from, to, firstDocID)));
             }
-        } else {
-            // First register the document and get a docID
-            int docID = generateDocID();
+            // merge each range as soon as it and the ones before it are done
+            for (Future<Partial> partial : partials) {
+                merge(partial.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Indexing failed", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Tokenizes and indexes all files under <code>f</code> into a
+     * ConcurrentHashedIndex, with <code>nrOfThreads</code> worker threads
+     * inserting into it at the same time.
+     *
+     * The files are listed first and get the docIDs <code>processFiles</code>
+     * would give them. Each worker takes the next file not taken yet, so the
+     * documents are committed nearly in docID order, and adding them to the
+     * postings lists is nearly always an append.
+     */
+    private void processFilesConcurrently(File f, int nrOfThreads)
+    {
+        List<Path> files = new ArrayList<>();
+        listFiles(f, files);
+        int firstDocID = lastDocID;
+        lastDocID += files.size();
+
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(nrOfThreads, 1));
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < Math.max(nrOfThreads, 1); t++) {
+                done.add(workers.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < files.size(); i = next.getAndIncrement()) {
+                        int docID = firstDocID + i;
+                        if (docID % 1000 == 0) System.err.println("Indexed " + docID + " files");
+                        Path file = files.get(i);
+                        long modified = FileCrawler.lastModified(file);
+                        int length;
+                        try {
+                            length = indexContents(load(file), docID, index);
+                        } catch (IOException e) {
+                            length = -1;
+                        }
+                        if (length >= 0) {
+                            index.commit(docID, file.toString(), length, modified);
+                        } else {
+                            System.err.println("Warning: IOException during indexing.");
+                            index.discard(docID);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : done) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Indexing failed", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Tokenizes and indexes all files under <code>f</code> in a pipeline of
+     * stages (see IndexingPipeline), with <code>readers</code> threads reading
+     * files and <code>tokenizers</code> threads tokenizing them. The index is
+     * the same as the one <code>processFiles</code> builds.
+     */
+    public void processFilesPipelined(File f, boolean is_indexing, int readers, int tokenizers)
+    {
+        if (!is_indexing) {
+            return;
+        }
+        new IndexingPipeline(this, readers, tokenizers, 256).run(f);
+    }
+
+
+    /**
+     * Indexes <code>files[from..to)</code> into a new partial index. The ith
+     * file gets docID <code>firstDocID + i</code>.
+     */
+    private Partial indexRange(List<Path> files, int from, int to, int firstDocID)
+    {
+        Partial partial = new Partial(firstDocID + from, to - from);
+        for (int i = from; i < to; i++) {
+            int docID = firstDocID + i;
             if (docID % 1000 == 0) System.err.println("Indexed " + docID + " files");
+            Path file = files.get(i);
+            long modified = FileCrawler.lastModified(file);
+            int length;
             try {
-                 Reader reader = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8);
-                 Tokenizer tok = new Tokenizer(reader, true, false, true, patterns_file);
-                 int offset = 0;
-                 while (tok.hasMoreTokens()) {
-                    String token = tok.nextToken();
-                    insertIntoIndex(docID, token, offset++);
-                 }
-                 index.docNames.put(docID, f.getPath());
-                 index.docLengths.put(docID, offset);
-                 reader.close();
+                length = indexContents(load(file), docID, partial.index);
             } catch (IOException e) {
-               System.err.println("Warning: IOException during indexing.");
+                length = -1;
+            }
+            if (length >= 0) {
+                partial.docNames[i - from] = file.toString();
+                partial.docLengths[i - from] = length;
+                partial.modified[i - from] = modified;
+            } else {
+                System.err.println("Warning: IOException during indexing.");
+            }
+        }
+        return partial;
+    }
+
+
+    /**
+     * Merges a partial index into the index. Its docIDs must all come after
+     * those already in the index.
+     */
+    private void merge(Partial partial)
+    {
+        ((HashedIndex) index).merge(partial.index);
+        for (int i = 0; i < partial.docNames.length; i++) {
+            if (partial.docNames[i] != null) {
+                index.commit(partial.firstDocID + i, partial.docNames[i], partial.docLengths[i], partial.modified[i]);
             }
         }
     }
@@ -120,4 +463,12 @@ public class Indexer
             kgIndex.insert(token);
         }*/
     }
+
+    /**
+     * Indexes the token <code>buf[start..start+length)</code>.
+     */
+    public void insertIntoIndex(int docID, char[] buf, int start, int length, int offset)
+    {
+        index.insert(buf, start, length, docID, offset);
+    }
 }
@@ -0,0 +1,358 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Indexes files in a pipeline of stages connected by bounded queues:
+ *
+ *   discovery -> reading -> tokenization -> inversion -> docInfo
+ *
+ * Discovery walks the directories (see FileCrawler) on the calling thread
+ * and hands out docIDs in the order <code>Indexer.processFiles</code> would.
+ * Reading and tokenization run on as many threads as configured, so disk
+ * reads overlap with the regex work of the Tokenizer. Inversion and the docInfo
+ * bookkeeping write to structures that are not thread-safe, so they run
+ * on one thread each. The inverter takes the documents back in docID
+ * order, which makes the index identical to the serial one.
+ *
+ * A full queue blocks the stage feeding it, and the number of documents
+ * in flight is bounded as well, so memory stays bounded whichever stage
+ * is the slowest. The queue depths show which one it is. The token
+ * buffers go back to the tokenizers once a document is inverted, so
+ * there are never more of them than documents in flight.
+ */
+public class IndexingPipeline
+{
+    /**
+     * A document on its way through the pipeline.
+     */
+    private static class Doc
+    {
+        final int docID;
+        final Path file;
+        ByteBuffer bytes;
+        TokenBuffer tokens;
+        int length;
+        long modified;
+        boolean failed = false;
+
+        Doc(int docID, Path file)
+        {
+            this.docID = docID;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Passed down a queue after the last document.
+     */
+    private static final Doc END = new Doc(-1, null);
+
+    /**
+     * The names of the queues, in pipeline order.
+     */
+    public static final String[] QUEUE_NAMES = {"files", "read", "tokenized", "inverted"};
+
+    private final Indexer indexer;
+    private final int readers;
+    private final int tokenizers;
+
+    /**
+     * The queues between the stages, in pipeline order.
+     */
+    private final BlockingQueue<Doc> files;
+    private final BlockingQueue<Doc> read;
+    private final BlockingQueue<Doc> tokenized;
+    private final BlockingQueue<Doc> inverted;
+
+    /**
+     * One permit per document in flight, from discovery to inversion.
+     */
+    private final Semaphore inFlight;
+
+    /**
+     * Token buffers the inverter is done with, for the tokenizers to reuse.
+     */
+    private final ConcurrentLinkedQueue<TokenBuffer> freeTokenBuffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Documents tokenized before some document with a lower docID, waiting
+     * for their turn to be inverted.
+     */
+    private final Map<Integer, Doc> waiting = new HashMap<>();
+    private volatile int nrWaiting = 0;
+
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile Thread discoveryThread;
+    private volatile Throwable error = null;
+
+    /**
+     * @param indexer       The indexer whose index and docIDs are used.
+     * @param readers       Number of threads reading files.
+     * @param tokenizers    Number of threads tokenizing files.
+     * @param queueCapacity Number of documents each queue can hold.
+     */
+    public IndexingPipeline(Indexer indexer, int readers, int tokenizers, int queueCapacity)
+    {
+        this.indexer = indexer;
+        this.readers = Math.max(readers, 1);
+        this.tokenizers = Math.max(tokenizers, 1);
+        files = new ArrayBlockingQueue<>(queueCapacity);
+        read = new ArrayBlockingQueue<>(queueCapacity);
+        tokenized = new ArrayBlockingQueue<>(queueCapacity);
+        inverted = new ArrayBlockingQueue<>(queueCapacity);
+        inFlight = new Semaphore(4 * queueCapacity + this.readers + this.tokenizers);
+    }
+
+    /**
+     * Returns the number of documents in each queue, in the order of
+     * <code>QUEUE_NAMES</code>, followed by the number of documents
+     * waiting for an earlier one to be inverted.
+     */
+    public int[] getQueueDepths()
+    {
+        return new int[]{files.size(), read.size(), tokenized.size(), inverted.size(), nrWaiting};
+    }
+
+    /**
+     * Returns the queue depths as text, for the log.
+     */
+    public String describeQueues()
+    {
+        int[] depths = getQueueDepths();
+        StringBuilder sb = new StringBuilder("queues:");
+        for (int i = 0; i < QUEUE_NAMES.length; i++) {
+            sb.append(' ').append(QUEUE_NAMES[i]).append('=').append(depths[i]);
+        }
+        return sb.append(" waiting=").append(depths[QUEUE_NAMES.length]).toString();
+    }
+
+    /**
+     * Indexes all the files under <code>f</code>, and returns when they are
+     * all in the index.
+     */
+    public void run(File f)
+    {
+        discoveryThread = Thread.currentThread();
+        int firstDocID = indexer.peekDocID();
+        AtomicInteger readersLeft = new AtomicInteger(readers);
+        AtomicInteger tokenizersLeft = new AtomicInteger(tokenizers);
+        for (int i = 0; i < readers; i++) {
+            start("indexer-read-" + i, () -> stage(files, read, readersLeft, this::readFile));
+        }
+        for (int i = 0; i < tokenizers; i++) {
+            start("indexer-tokenize-" + i, () -> stage(read, tokenized, tokenizersLeft, this::tokenize));
+        }
+        start("indexer-invert", () -> invert(firstDocID));
+        start("indexer-docinfo", this::recordDocInfo);
+
+        try {
+            discover(f);
+            files.put(END);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            if (error == null) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (error != null) {
+            // the interrupt was ours, to stop the discovery
+            Thread.interrupted();
+            throw new RuntimeException("Indexing failed", error);
+        }
+    }
+
+    private synchronized void start(String name, Runnable work)
+    {
+        Thread thread = new Thread(() -> {
+            try {
+                work.run();
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }, name);
+        threads.add(thread);
+        thread.start();
+    }
+
+    /**
+     * Stops the whole pipeline after a stage failed.
+     */
+    private synchronized void fail(Throwable e)
+    {
+        if (error == null) {
+            error = e;
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            discoveryThread.interrupt();
+        }
+    }
+
+    /**
+     * What a reading or tokenizing thread does to one document.
+     */
+    private interface Step
+    {
+        void process(Doc doc);
+    }
+
+    /**
+     * Runs one thread of a stage: takes documents from <code>in</code>,
+     * processes them and passes them on to <code>out</code>. The last thread
+     * of the stage to see the end passes it on.
+     */
+    private void stage(BlockingQueue<Doc> in, BlockingQueue<Doc> out, AtomicInteger threadsLeft, Step step)
+    {
+        try {
+            while (true) {
+                Doc doc = in.take();
+                if (doc == END) {
+                    // let the other threads of the stage see it too
+                    in.put(END);
+                    if (threadsLeft.decrementAndGet() == 0) {
+                        out.put(END);
+                    }
+                    return;
+                }
+                if (!doc.failed) {
+                    step.process(doc);
+                }
+                out.put(doc);
+            }
+        } catch (InterruptedException e) {
+            // the pipeline is being stopped
+        }
+    }
+
+    /**
+     * Walks the directories like <code>Indexer.processFiles</code> and
+     * gives each file its docID.
+     */
+    private void discover(File f) throws InterruptedException
+    {
+        if (!f.canRead()) {
+            return;
+        }
+        FileCrawler.walk(f.toPath(), file -> {
+            inFlight.acquire();
+            files.put(new Doc(indexer.generateDocID(), file));
+        });
+    }
+
+    private void readFile(Doc doc)
+    {
+        try {
+            doc.modified = FileCrawler.lastModified(doc.file);
+            long startTime = System.nanoTime();
+            doc.bytes = FileCrawler.load(doc.file);
+            indexer.stats.read(System.nanoTime() - startTime, doc.bytes.remaining());
+        } catch (IOException e) {
+            System.err.println("Warning: IOException during indexing.");
+            doc.failed = true;
+        }
+    }
+
+    private void tokenize(Doc doc)
+    {
+        long startTime = System.nanoTime();
+        TokenBuffer tokens = freeTokenBuffers.poll();
+        if (tokens == null) {
+            tokens = new TokenBuffer();
+        }
+        tokens.clear();
+        try {
+            indexer.tokenizer(doc.bytes).tokenize(tokens);
+            doc.tokens = tokens;
+            indexer.stats.tokenized(System.nanoTime() - startTime);
+        } catch (IOException e) {
+            System.err.println("Warning: IOException during indexing.");
+            doc.failed = true;
+            freeTokenBuffers.offer(tokens);
+        }
+        doc.bytes = null;
+    }
+
+    /**
+     * Inserts the tokens of the documents into the index, in docID order.
+     */
+    private void invert(int nextDocID)
+    {
+        try {
+            while (true) {
+                Doc doc = tokenized.take();
+                if (doc == END) {
+                    inverted.put(END);
+                    return;
+                }
+                waiting.put(doc.docID, doc);
+                while ((doc = waiting.remove(nextDocID)) != null) {
+                    if (doc.docID % 1000 == 0) {
+                        System.err.println("Indexed " + doc.docID + " files (" + describeQueues() + ")");
+                    }
+                    if (!doc.failed) {
+                        long startTime = System.nanoTime();
+                        TokenBuffer tokens = doc.tokens;
+                        for (int offset = 0; offset < tokens.size(); offset++) {
+                            indexer.insertIntoIndex(doc.docID, tokens.getChars(), tokens.start(offset), tokens.length(offset), offset);
+                        }
+                        indexer.stats.inserted(System.nanoTime() - startTime, tokens.size());
+                        doc.length = tokens.size();
+                        doc.tokens = null;
+                        freeTokenBuffers.offer(tokens);
+                    }
+                    inverted.put(doc);
+                    inFlight.release();
+                    nextDocID++;
+                }
+                nrWaiting = waiting.size();
+            }
+        } catch (InterruptedException e) {
+            // the pipeline is being stopped
+        }
+    }
+
+    /**
+     * Records the name and length of every document that could be read.
+     */
+    private void recordDocInfo()
+    {
+        try {
+            while (true) {
+                Doc doc = inverted.take();
+                if (doc == END) {
+                    return;
+                }
+                if (!doc.failed) {
+                    indexer.index.commit(doc.docID, doc.file.toString(), doc.length, doc.modified);
+                } else {
+                    indexer.index.discard(doc.docID);
+                }
+            }
+        } catch (InterruptedException e) {
+            // the pipeline is being stopped
+        }
+    }
+}
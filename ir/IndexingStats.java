@@ -0,0 +1,290 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts what the indexer does: documents, tokens and bytes, and the time
+ * spent reading files, tokenizing them and inserting the tokens into the
+ * index. The sizes of the index (terms, postings, and the heap taken by the
+ * postings lists, the dictionary and the doc tables) are measured from the
+ * index when they are asked for.
+ *
+ * The numbers can be read through JMX, as <code>ir:type=IndexingStats</code>,
+ * and are logged every LOG_INTERVAL milliseconds while indexing runs.
+ *
+ * The counters can be updated by many threads at once. The sizes are read
+ * from the index without locking it, so they are estimates while indexing
+ * runs.
+ */
+public class IndexingStats implements IndexingStatsMBean
+{
+    /**
+     * How often the statistics are logged while indexing, in milliseconds.
+     */
+    public static final long LOG_INTERVAL = 10000;
+
+    /**
+     * The JMX name of the statistics.
+     */
+    public static final String OBJECT_NAME = "ir:type=IndexingStats";
+
+    /**
+     * The sizes of the part of an index that is in memory, filled in by
+     * <code>Index.measure</code>.
+     */
+    public static class Sizes
+    {
+        public long terms = 0;
+        public long postings = 0;
+        public long postingsBytes = 0;
+        public long dictionaryBytes = 0;
+    }
+
+    private final Index index;
+
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder tokenizeNanos = new LongAdder();
+    private final LongAdder insertNanos = new LongAdder();
+
+    private volatile long startTime = System.nanoTime();
+
+    private Thread logger = null;
+
+
+    /**
+     * @param index The index the sizes are measured from.
+     */
+    public IndexingStats(Index index)
+    {
+        this.index = index;
+    }
+
+    /**
+     * Records that a file of <code>length</code> bytes was read.
+     */
+    public void read(long nanos, long length)
+    {
+        readNanos.add(nanos);
+        bytes.add(length);
+    }
+
+    /**
+     * Records the time a document took to tokenize.
+     */
+    public void tokenized(long nanos)
+    {
+        tokenizeNanos.add(nanos);
+    }
+
+    /**
+     * Records that the <code>nrOfTokens</code> tokens of a document were
+     * inserted into the index.
+     */
+    public void inserted(long nanos, int nrOfTokens)
+    {
+        insertNanos.add(nanos);
+        tokens.add(nrOfTokens);
+        documents.increment();
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     * Makes the statistics readable through JMX. A warning is printed if
+     * that fails; indexing goes on anyway.
+     */
+    public void register()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            System.err.println("Warning: could not register " + OBJECT_NAME + " with JMX");
+        }
+    }
+
+    /**
+     * Starts counting the rates from now, and logging the statistics every
+     * LOG_INTERVAL milliseconds on a thread of its own.
+     */
+    public synchronized void start()
+    {
+        startTime = System.nanoTime();
+        if (logger != null) {
+            return;
+        }
+        logger = new Thread(() -> {
+            long[] last = new long[]{0, 0, 0};
+            long lastTime = System.nanoTime();
+            try {
+                while (true) {
+                    Thread.sleep(LOG_INTERVAL);
+                    long now = System.nanoTime();
+                    long[] counts = new long[]{documents.sum(), tokens.sum(), bytes.sum()};
+                    double seconds = (now - lastTime) / 1e9;
+                    System.err.println(String.format("Indexing: %.0f docs/s, %.0f tokens/s, %.1f MB/s, %s",
+                            (counts[0] - last[0]) / seconds, (counts[1] - last[1]) / seconds, (counts[2] - last[2]) / seconds / (1 << 20), this));
+                    last = counts;
+                    lastTime = now;
+                }
+            } catch (InterruptedException e) {
+                // indexing is done
+            }
+        }, "indexing-stats");
+        logger.setDaemon(true);
+        logger.start();
+    }
+
+    /**
+     * Stops logging, and logs the statistics of the whole run.
+     */
+    public synchronized void stop()
+    {
+        if (logger != null) {
+            logger.interrupt();
+            logger = null;
+        }
+        System.err.println(String.format("Indexed: %.0f docs/s, %.0f tokens/s, %.1f MB/s, %s",
+                getDocumentsPerSecond(), getTokensPerSecond(), getBytesPerSecond() / (1 << 20), this));
+    }
+
+    /**
+     * Returns the totals, the time split and the sizes, for the log.
+     */
+    @Override
+    public String toString()
+    {
+        Sizes sizes = measure();
+        long read = readNanos.sum();
+        long tokenize = tokenizeNanos.sum();
+        long insert = insertNanos.sum();
+        double total = Math.max(read + tokenize + insert, 1);
+        return String.format("%d docs, %d tokens, %.1f MB read, %d postings, %d terms, "
+                        + "time read %.0f%% tokenize %.0f%% insert %.0f%%, "
+                        + "heap %.1f MB: postings %.1f MB, dictionary %.1f MB, doc tables %.1f MB",
+                documents.sum(), tokens.sum(), bytes.sum() / (double) (1 << 20), sizes.postings, sizes.terms,
+                100 * read / total, 100 * tokenize / total, 100 * insert / total,
+                getHeapUsedBytes() / (double) (1 << 20), sizes.postingsBytes / (double) (1 << 20),
+                sizes.dictionaryBytes / (double) (1 << 20), getDocTablesHeapBytes() / (double) (1 << 20));
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    private Sizes measure()
+    {
+        Sizes sizes = new Sizes();
+        index.measure(sizes);
+        return sizes;
+    }
+
+    private double seconds()
+    {
+        return Math.max(System.nanoTime() - startTime, 1) / 1e9;
+    }
+
+    public long getDocuments()
+    {
+        return documents.sum();
+    }
+
+    public long getTokens()
+    {
+        return tokens.sum();
+    }
+
+    public long getBytesRead()
+    {
+        return bytes.sum();
+    }
+
+    public double getDocumentsPerSecond()
+    {
+        return documents.sum() / seconds();
+    }
+
+    public double getTokensPerSecond()
+    {
+        return tokens.sum() / seconds();
+    }
+
+    public double getBytesPerSecond()
+    {
+        return bytes.sum() / seconds();
+    }
+
+    public long getPostings()
+    {
+        return measure().postings;
+    }
+
+    public long getUniqueTerms()
+    {
+        return measure().terms;
+    }
+
+    public long getReadMillis()
+    {
+        return readNanos.sum() / 1000000;
+    }
+
+    public long getTokenizeMillis()
+    {
+        return tokenizeNanos.sum() / 1000000;
+    }
+
+    public long getInsertMillis()
+    {
+        return insertNanos.sum() / 1000000;
+    }
+
+    public long getPostingsHeapBytes()
+    {
+        return measure().postingsBytes;
+    }
+
+    public long getDictionaryHeapBytes()
+    {
+        return measure().dictionaryBytes;
+    }
+
+    /**
+     * Estimates the heap taken by the doc tables: a map entry and a boxed
+     * docID per document and table, and the boxed length, norm and name.
+     */
+    public long getDocTablesHeapBytes()
+    {
+        long total = 0;
+        for (Map.Entry<Integer, String> doc : Index.docNames.entrySet()) {
+            total += 40 + doc.getValue().length();
+        }
+        total += 3 * 48L * Index.docNames.size();
+        total += 16L * Index.docLengths.size() + 16L * Index.docNorms.size();
+        return total;
+    }
+
+    public long getHeapUsedBytes()
+    {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
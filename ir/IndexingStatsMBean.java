@@ -0,0 +1,44 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+/**
+ * The indexing statistics as seen through JMX (see IndexingStats).
+ * Rates are averages since indexing started, times are summed over the
+ * threads doing the work, and sizes are estimates in bytes.
+ */
+public interface IndexingStatsMBean
+{
+    long getDocuments();
+
+    long getTokens();
+
+    long getBytesRead();
+
+    double getDocumentsPerSecond();
+
+    double getTokensPerSecond();
+
+    double getBytesPerSecond();
+
+    long getPostings();
+
+    long getUniqueTerms();
+
+    long getReadMillis();
+
+    long getTokenizeMillis();
+
+    long getInsertMillis();
+
+    long getPostingsHeapBytes();
+
+    long getDictionaryHeapBytes();
+
+    long getDocTablesHeapBytes();
+
+    long getHeapUsedBytes();
+}
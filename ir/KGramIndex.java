@@ -18,25 +18,15 @@ public class KGramIndex
 {
 
     /**
-     * Mapping from term ids to actual term strings
+     * Mapping between term strings and term ids
      */
-    HashMap<Integer, String> id2term = new HashMap<>();
-
-    /**
-     * Mapping from term strings to term ids
-     */
-    HashMap<String, Integer> term2id = new HashMap<>();
+    TermDictionary terms = new TermDictionary();
 
     /**
      * Index from k-grams to list of term ids that contain the k-gram
      */
     HashMap<String, List<KGramPostingsEntry>> index = new HashMap<>();
 
-    /**
-     * The ID of the last processed term
-     */
-    int lastTermID = -1;
-
     /**
      * Number of symbols to form a K-gram
      */
@@ -51,14 +41,6 @@ public class KGramIndex
         }
     }
 
-    /**
-     * Generate the ID for an unknown term
-     */
-    private int generateTermID()
-    {
-        return ++lastTermID;
-    }
-
     public int getK()
     {
         return K;
@@ -124,18 +106,19 @@ public class KGramIndex
     /// inserting a given token (term) and its corresponding k-grams into the index
     public void insert(String token) {
 
+        // look the token up in the dictionary, which gives it a new term ID (the next free one)
+        // if it did not exist yet, and keeps the mapping between token and ID in both ways
+        int nrOfTerms = terms.size();
+        int newID = terms.add(token);
+
         // check if the token already exists in the index (to avoid duplicate entries in the index)
-        // If the term ID is not null (token already exists in the index)
-        if (getIDByTerm(token) != null) {
+        // If the ID is an old one (token already exists in the index)
+        if (newID < nrOfTerms) {
             return; // return without doing anything (don't insert the token into the index)
         }
 
         /*-- If the token does not exist in the index: --*/
 
-        // generate a new term ID for the token
-        // generateTermID(): increments the lastTermID counter and returns the new term ID
-        int newID = generateTermID();
-
         // create a new KGramPostingsEntry object with the new term ID
         // stores the postings entries (the list of term IDs) for the k-grams extracted from the token
         KGramPostingsEntry kgPE = new KGramPostingsEntry(newID);
@@ -144,10 +127,6 @@ public class KGramIndex
         // so that k-grams that span across the start or end of the token can be captured
         String modifiedToken = "^" + token + "$";
 
-        // add it to the mapping between the ORIGINAL TOKEN and its NEW ID in both ways
-        term2id.put(token, newID);
-        id2term.put(newID, token);
-
 
         String extractedKGram;
         int tokenLen = token.length();
@@ -194,12 +173,56 @@ public class KGramIndex
 
     /* --------------------------------------------------------- */
 
+    /**
+     * Writes K, the terms and the postings of every k-gram.
+     */
+    public void writeTo(DataOutput out) throws IOException
+    {
+        out.writeInt(K);
+        out.writeInt(terms.size());
+        for (int id = 0; id < terms.size(); id++) {
+            out.writeUTF(terms.getTerm(id));
+        }
+        out.writeInt(index.size());
+        for (Map.Entry<String, List<KGramPostingsEntry>> kgram : index.entrySet()) {
+            out.writeUTF(kgram.getKey());
+            out.writeInt(kgram.getValue().size());
+            for (KGramPostingsEntry entry : kgram.getValue()) {
+                out.writeInt(entry.tokenID);
+            }
+        }
+    }
+
+    /**
+     * Reads a k-gram index written by <code>writeTo</code>.
+     */
+    public static KGramIndex readFrom(DataInput in) throws IOException
+    {
+        KGramIndex kgIndex = new KGramIndex(in.readInt());
+        int nrOfTerms = in.readInt();
+        for (int id = 0; id < nrOfTerms; id++) {
+            kgIndex.terms.add(in.readUTF());
+        }
+        int nrOfKGrams = in.readInt();
+        for (int i = 0; i < nrOfKGrams; i++) {
+            String kgram = in.readUTF();
+            int size = in.readInt();
+            List<KGramPostingsEntry> postings = new ArrayList<>(size);
+            for (int j = 0; j < size; j++) {
+                postings.add(new KGramPostingsEntry(in.readInt()));
+            }
+            kgIndex.index.put(kgram, postings);
+        }
+        return kgIndex;
+    }
+
     /**
      * Get id of a term
      */
     public Integer getIDByTerm(String term)
     {
-        return term2id.get(term);
+        int id = terms.lookup(term);
+        return id < 0 ? null : id;
     }
 
     /**
@@ -207,7 +230,7 @@ public class KGramIndex
      */
     public String getTermByID(Integer id)
     {
-        return id2term.get(id);
+        return terms.getTerm(id);
     }
 
     private static HashMap<String, String> decodeArgs(String[] args)
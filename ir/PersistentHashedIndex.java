@@ -1,27 +1,37 @@
-/*  
+/*
  *   This file is part of the computer assignment for the
  *   Information Retrieval course at KTH.
- * 
+ *
  *   Johan Boye, KTH, 2018
- */  
+ */
 
 package ir;
 
 import java.io.*;
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 
 
 /*
  *   Implements an inverted index as a hashtable on disk.
- *   
+ *
  *   Both the words (the dictionary) and the data (the postings list) are
  *   stored in RandomAccessFiles that permit fast (almost constant-time)
- *   disk seeks. 
+ *   disk seeks.
  *
  *   When words are read and indexed, they are first put in an ordinary,
- *   main-memory HashMap. When all words are read, the index is committed
- *   to disk.
+ *   main-memory index. Whenever the heap fills up, that index is written
+ *   to a temporary file as a run sorted by term, and a new one is started
+ *   (single-pass in-memory indexing, SPIMI). When all words are read, the
+ *   runs are merged term by term and the result is committed to disk, so
+ *   the size of the index is bounded by the disk and not by the heap.
  */
 public class PersistentHashedIndex implements Index {
 
@@ -43,6 +53,18 @@ public class PersistentHashedIndex implements Index {
     /** The dictionary hash table on disk can fit this many entries. */
     public static final long TABLESIZE = 611953L;
 
+    /** The size in bytes of one entry of the dictionary hash table. */
+    public static final int ENTRYSIZE = 16;
+
+    /** A run is written to disk when this fraction of the heap is in use... */
+    public static final double SPILL_FRACTION = 0.6;
+
+    /** ...and the run holds at least this many tokens. */
+    public static final long MIN_RUN_TOKENS = 1L << 20;
+
+    /** The heap usage is checked every this many tokens. */
+    public static final int CHECK_INTERVAL = 1 << 16;
+
     /** The dictionary hash table is stored in this file. */
     RandomAccessFile dictionaryFile;
 
@@ -52,31 +74,58 @@ public class PersistentHashedIndex implements Index {
     /** Pointer to the first free memory cell in the data file. */
     long free = 0L;
 
-    /** The cache as a main-memory hash map. */
-    HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
+    /** The run being built, as a main-memory index. */
+    HashedIndex index = new HashedIndex();
+
+    /** Number of tokens in the run being built. */
+    long runTokens = 0;
+
+    /** A run is also written once it holds this many tokens. */
+    long maxRunTokens = Long.MAX_VALUE;
+
+    /** The runs written to disk so far, in the order they were written. */
+    List<File> runs = new ArrayList<>();
+
+    /** The directory the runs are written to, created with the first run. */
+    Path runDir = null;
+
+    /** Number of unique words, once the runs are merged. */
+    int nrOfTerms = 0;
 
 
     // ===================================================================
 
     /**
      *   A helper class representing one entry in the dictionary hashtable.
-     */ 
+     */
     public class Entry {
-        //
-        //  YOUR CODE HERE
-        //
+        /** Where the term and its postings start in the data file. */
+        long ptr;
+
+        /** Number of bytes of the term and its postings. */
+        int size;
+
+        /** The hash code of the term, to skip colliding terms without reading them. */
+        int hash;
+
+        Entry( long ptr, int size, int hash ) {
+            this.ptr = ptr;
+            this.size = size;
+            this.hash = hash;
+        }
     }
 
 
     // ==================================================================
 
-    
+
     /**
      *  Constructor. Opens the dictionary file and the data file.
-     *  If these files don't exist, they will be created. 
+     *  If these files don't exist, they will be created.
      */
     public PersistentHashedIndex() {
         try {
+            Files.createDirectories( Paths.get( INDEXDIR ));
             dictionaryFile = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME, "rw" );
             dataFile = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME, "rw" );
         } catch ( IOException e ) {
@@ -95,11 +144,10 @@ public class PersistentHashedIndex implements Index {
      *  Writes data to the data file at a specified place.
      *
      *  @return The number of bytes written.
-     */ 
-    int writeData( String dataString, long ptr ) {
+     */
+    int writeData( byte[] data, long ptr ) {
         try {
-            dataFile.seek( ptr ); 
-            byte[] data = dataString.getBytes();
+            dataFile.seek( ptr );
             dataFile.write( data );
             return data.length;
         } catch ( IOException e ) {
@@ -111,13 +159,13 @@ public class PersistentHashedIndex implements Index {
 
     /**
      *  Reads data from the data file
-     */ 
-    String readData( long ptr, int size ) {
+     */
+    byte[] readData( long ptr, int size ) {
         try {
             dataFile.seek( ptr );
             byte[] data = new byte[size];
             dataFile.readFully( data );
-            return new String(data);
+            return data;
         } catch ( IOException e ) {
             e.printStackTrace();
             return null;
@@ -130,15 +178,20 @@ public class PersistentHashedIndex implements Index {
     //  Reading and writing to the dictionary file.
 
     /*
-     *  Writes an entry to the dictionary hash table file. 
+     *  Writes an entry to the dictionary hash table file.
      *
      *  @param entry The key of this entry is assumed to have a fixed length
      *  @param ptr   The place in the dictionary file to store the entry
      */
     void writeEntry( Entry entry, long ptr ) {
-        //
-        //  YOUR CODE HERE
-        //
+        try {
+            dictionaryFile.seek( ptr );
+            dictionaryFile.writeLong( entry.ptr );
+            dictionaryFile.writeInt( entry.size );
+            dictionaryFile.writeInt( entry.hash );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -146,18 +199,31 @@ public class PersistentHashedIndex implements Index {
      *
      *  @param ptr The place in the dictionary file where to start reading.
      */
-    Entry readEntry( long ptr ) {   
-        //
-        //  REPLACE THE STATEMENT BELOW WITH YOUR CODE 
-        //
-        return null;
+    Entry readEntry( long ptr ) {
+        try {
+            dictionaryFile.seek( ptr );
+            byte[] bytes = new byte[ENTRYSIZE];
+            dictionaryFile.readFully( bytes );
+            DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ));
+            return new Entry( in.readLong(), in.readInt(), in.readInt() );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     *  The slot of the dictionary hash table where the search for a term starts.
+     */
+    static long slot( String token ) {
+        return Math.floorMod( token.hashCode(), TABLESIZE );
     }
 
 
     // ==================================================================
 
     /**
-     *  Writes the document names and document lengths to file.
+     *  Writes the document names, document lengths and document norms to file.
      *
      * @throws IOException  { exception_description }
      */
@@ -165,7 +231,7 @@ public class PersistentHashedIndex implements Index {
         FileOutputStream fout = new FileOutputStream( INDEXDIR + "/docInfo" );
         for ( Map.Entry<Integer,String> entry : docNames.entrySet() ) {
             Integer key = entry.getKey();
-            String docInfoEntry = key + ";" + entry.getValue() + ";" + docLengths.get(key) + "\n";
+            String docInfoEntry = key + ";" + entry.getValue() + ";" + docLengths.get(key) + ";" + docNorms.getOrDefault(key, 0.0) + "\n";
             fout.write( docInfoEntry.getBytes() );
         }
         fout.close();
@@ -173,8 +239,8 @@ public class PersistentHashedIndex implements Index {
 
 
     /**
-     *  Reads the document names and document lengths from file, and
-     *  put them in the appropriate data structures.
+     *  Reads the document names, document lengths and document norms from
+     *  file, and put them in the appropriate data structures.
      *
      * @throws     IOException  { exception_description }
      */
@@ -187,6 +253,9 @@ public class PersistentHashedIndex implements Index {
                 String[] data = line.split(";");
                 docNames.put(Integer.valueOf(data[0]), data[1] );
                 docLengths.put(Integer.valueOf(data[0]), Integer.valueOf(data[2]));
+                if ( data.length > 3 ) {
+                    docNorms.put(Integer.valueOf(data[0]), Double.valueOf(data[3]));
+                }
             }
         }
         freader.close();
@@ -199,14 +268,248 @@ public class PersistentHashedIndex implements Index {
     public void writeIndex() {
         int collisions = 0;
         try {
-            // Write the 'docNames' and 'docLengths' hash maps to a file
+            // The last run goes to disk as well, then all runs are merged
+            // into the dictionary and the postings lists
+            writeRun();
+            collisions = mergeRuns( new BitSet() );
+
+            // Write the 'docNames', 'docLengths' and 'docNorms' hash maps to a file
             writeDocInfo();
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+        System.err.println( collisions + " collisions." );
+    }
+
+
+    // ==================================================================
+    //
+    //  Runs (SPIMI).
+
+    /**
+     *  Writes the run being built to a temporary file and starts a new run.
+     */
+    void writeRun() throws IOException {
+        if ( runTokens == 0 ) {
+            return;
+        }
+        writeRun( index );
+        index = new HashedIndex();
+        runTokens = 0;
+    }
+
+    /**
+     *  Writes a main-memory index to a temporary file as a run: its terms
+     *  in sorted order, each followed by its postings. This is also the
+     *  layout of the data file.
+     */
+    void writeRun( HashedIndex memoryIndex ) throws IOException {
+        createRunDir();
+        TermDictionary dictionary = memoryIndex.getDictionary();
+        String[] terms = new String[dictionary.size()];
+        for ( int termID = 0; termID < terms.length; termID++ ) {
+            terms[termID] = dictionary.getTerm( termID );
+        }
+        Arrays.sort( terms );
+
+        File run = new File( runDir.toFile(), "run" + runs.size() );
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( run )))) {
+            for ( String term : terms ) {
+                out.writeUTF( term );
+                memoryIndex.getPostings( term ).writeTo( out );
+            }
+        }
+        runs.add( run );
+    }
+
+    /**
+     *  Creates the directory the runs are written to, if there is none.
+     */
+    void createRunDir() throws IOException {
+        if ( runDir == null ) {
+            runDir = Files.createTempDirectory( Paths.get( INDEXDIR ), "runs" );
+        }
+    }
+
+    /**
+     *  Reads one run back, term by term.
+     */
+    static class RunReader implements Comparable<RunReader> {
+        final DataInputStream in;
+        final int run;
+        String term;
+        PostingsList postings;
+
+        RunReader( File file, int run ) throws IOException {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( file )));
+            this.run = run;
+        }
+
+        /**
+         *  Moves to the next term of the run, returns false at the end.
+         */
+        boolean next() throws IOException {
+            try {
+                term = in.readUTF();
+            } catch ( EOFException e ) {
+                in.close();
+                return false;
+            }
+            postings = PostingsList.readFrom( in );
+            return true;
+        }
+
+        /** Smallest term first, and the earliest run on equal terms. */
+        public int compareTo( RunReader other ) {
+            int c = term.compareTo( other.term );
+            return c != 0 ? c : Integer.compare( run, other.run );
+        }
+    }
+
+    /**
+     *  Merges all the runs (k-way, on the terms) into the dictionary file
+     *  and the data file. The postings of a term are concatenated in run
+     *  order, which is docID order, and written out block by block as they
+     *  go by, so the merged list is never held whole. The idf of each term,
+     *  the NUMBER_OF_WORDS score bounds and the Euclidean norm of each
+     *  document are computed on the way. The EUCLIDEAN score bounds need
+     *  the norms, so they are filled in afterwards, list by list.
+     *
+     *  @param deleted The documents whose postings are left out.
+     *  @return The number of collisions in the dictionary hash table.
+     */
+    int mergeRuns( BitSet deleted ) throws IOException {
+        dictionaryFile.setLength( 0 );
+        dictionaryFile.setLength( TABLESIZE * ENTRYSIZE );
+        dataFile.setLength( 0 );
+        free = 0L;
+        nrOfTerms = 0;
+        boolean[] used = new boolean[(int) TABLESIZE];
+        int collisions = 0;
+        long[] starts = new long[1024];
+
+        double nrOfDocuments = getNrOfDocuments();
+        int maxDocID = -1;
+        for ( int docID : docLengths.keySet() ) {
+            maxDocID = Math.max( maxDocID, docID );
+        }
+        double[] lengths = new double[maxDocID + 1];
+        for ( Map.Entry<Integer, Integer> doc : docLengths.entrySet() ) {
+            lengths[doc.getKey()] = doc.getValue();
+        }
+        double[] norms = new double[lengths.length];
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<>();
+        for ( int r = 0; r < runs.size(); r++ ) {
+            RunReader reader = new RunReader( runs.get( r ), r );
+            if ( reader.next() ) {
+                queue.add( reader );
+            }
+        }
+        List<RunReader> parts = new ArrayList<>();
+        while ( !queue.isEmpty() ) {
+            String term = queue.peek().term;
+            parts.clear();
+            while ( !queue.isEmpty() && queue.peek().term.equals( term )) {
+                parts.add( queue.poll() );
+            }
+
+            // a document cut in two by a run boundary continues its posting
+            int size = 0;
+            int lastDocID = -1;
+            for ( RunReader part : parts ) {
+                PostingsIterator it = part.postings.iterator();
+                while ( it.nextDoc() != PostingsIterator.NO_MORE_DOCS ) {
+                    if ( !deleted.get( it.docID() ) && it.docID() != lastDocID ) {
+                        size++;
+                        lastDocID = it.docID();
+                    }
+                }
+            }
+
+            if ( size > 0 ) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                new DataOutputStream( bytes ).writeUTF( term );
+                int termBytes = writeData( bytes.toByteArray(), free );
+                PostingsList.Writer writer = new PostingsList.Writer( dataFile, free + termBytes, size, Math.log( nrOfDocuments / size ), lengths, norms );
+                for ( RunReader part : parts ) {
+                    PostingsIterator it = part.postings.iterator();
+                    while ( it.nextDoc() != PostingsIterator.NO_MORE_DOCS ) {
+                        if ( !deleted.get( it.docID() )) {
+                            writer.add( it );
+                        }
+                    }
+                }
+                int listBytes = writer.finish();
+
+                long slot = slot( term );
+                for ( long probes = 0; used[(int) slot]; probes++ ) {
+                    if ( probes == TABLESIZE ) {
+                        throw new IOException( "The dictionary hash table is full" );
+                    }
+                    collisions++;
+                    slot = (slot + 1) % TABLESIZE;
+                }
+                used[(int) slot] = true;
+                writeEntry( new Entry( free, termBytes + listBytes, term.hashCode() ), slot * ENTRYSIZE );
+                if ( nrOfTerms == starts.length ) {
+                    starts = Arrays.copyOf( starts, 2 * starts.length );
+                }
+                starts[nrOfTerms++] = free + termBytes;
+                free += termBytes + listBytes;
+            }
+            // else all its documents were deleted
+
+            for ( RunReader part : parts ) {
+                if ( part.next() ) {
+                    queue.add( part );
+                }
+            }
+        }
+
+        for ( int docID : docLengths.keySet() ) {
+            norms[docID] = Math.sqrt( norms[docID] );
+            docNorms.put( docID, norms[docID] );
+            // a doc made only of terms found in every doc has no norm, it is divided by its length instead
+            if ( norms[docID] == 0 ) {
+                norms[docID] = lengths[docID];
+            }
+        }
+        for ( int t = 0; t < nrOfTerms; t++ ) {
+            PostingsList.writeMaxImpact( dataFile, starts[t], NormalizationType.EUCLIDEAN, norms );
+        }
+
+        for ( File run : runs ) {
+            Files.deleteIfExists( run.toPath() );
+        }
+        runs.clear();
+        if ( runDir != null ) {
+            Files.deleteIfExists( runDir );
+            runDir = null;
+        }
+        return collisions;
+    }
 
-            // Write the dictionary and the postings list
 
-            // 
-            //  YOUR CODE HERE
-            //
+    /**
+     *  Merges a main-memory index of documents added since the index was
+     *  written into it, and leaves out the documents in <code>deleted</code>,
+     *  which must already be out of docNames and docLengths. The data file
+     *  has the layout of a run, so it is merged as the first run and the
+     *  new documents, which have larger docIDs, as the second one.
+     */
+    public void merge( HashedIndex delta, BitSet deleted ) {
+        int collisions = 0;
+        try {
+            createRunDir();
+            File data = new File( runDir.toFile(), "data" );
+            dataFile.close();
+            Files.move( Paths.get( INDEXDIR, DATA_FNAME ), data.toPath() );
+            dataFile = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME, "rw" );
+            runs.add( 0, data );
+            writeRun( delta );
+            collisions = mergeRuns( deleted );
+            writeDocInfo();
         } catch ( IOException e ) {
             e.printStackTrace();
         }
@@ -221,26 +524,77 @@ public class PersistentHashedIndex implements Index {
      *  Returns the postings for a specific term, or null
      *  if the term is not in the index.
      */
-    public PostingsList getPostings( String token ) {
-        //
-        //  REPLACE THE STATEMENT BELOW WITH YOUR CODE
-        //
+    public synchronized PostingsList getPostings( String token ) {
+        int hash = token.hashCode();
+        long slot = slot( token );
+        for ( long probes = 0; probes < TABLESIZE; probes++ ) {
+            Entry entry = readEntry( slot * ENTRYSIZE );
+            if ( entry == null || entry.size == 0 ) {
+                return null;
+            }
+            if ( entry.hash == hash ) {
+                byte[] data = readData( entry.ptr, entry.size );
+                try {
+                    DataInputStream in = new DataInputStream( new ByteArrayInputStream( data ));
+                    if ( in.readUTF().equals( token )) {
+                        return PostingsList.readFrom( in );
+                    }
+                } catch ( IOException e ) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+            slot = (slot + 1) % TABLESIZE;
+        }
         return null;
     }
 
     public int getNrOfDocuments()
     {
-        return 0;
+        return docLengths.size();
+    }
+
+    /**
+     *  Only the run being built is in memory, the rest is on disk.
+     */
+    public void measure( IndexingStats.Sizes sizes ) {
+        index.measure( sizes );
     }
 
 
     /**
-     *  Inserts this token in the main-memory hashtable.
+     *  Inserts this token in the main-memory index. Every CHECK_INTERVAL
+     *  tokens the heap usage is checked, and the run is written to disk
+     *  if the heap is filling up.
      */
     public void insert( String token, int docID, int offset ) {
-        //
-        //  YOUR CODE HERE
-        //
+        index.insert( token, docID, offset );
+        tokenInserted();
+    }
+
+    public void insert( char[] buf, int start, int length, int docID, int offset ) {
+        index.insert( buf, start, length, docID, offset );
+        tokenInserted();
+    }
+
+    private void tokenInserted() {
+        runTokens++;
+        if ( runTokens >= maxRunTokens || (runTokens % CHECK_INTERVAL == 0 && heapIsFilling()) ) {
+            try {
+                writeRun();
+            } catch ( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        }
+    }
+
+    /**
+     *  Returns true if the run should be written to disk to make room.
+     */
+    boolean heapIsFilling() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return runTokens >= MIN_RUN_TOKENS && used > SPILL_FRACTION * runtime.maxMemory();
     }
 
 
@@ -248,9 +602,9 @@ public class PersistentHashedIndex implements Index {
      *  Write index to file after indexing is done.
      */
     public void cleanup() {
-        System.err.println( index.keySet().size() + " unique words" );
         System.err.print( "Writing index to disk..." );
         writeIndex();
         System.err.println( "done!" );
+        System.err.println( nrOfTerms + " unique words" );
     }
 }
@@ -10,8 +10,9 @@
 package ir;
 
 import java.io.Serializable;
-import java.util.Collection;
-import java.util.TreeSet;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 
 public class PostingsEntry implements Comparable<PostingsEntry>, Serializable
 {
@@ -19,31 +20,124 @@ public class PostingsEntry implements Comparable<PostingsEntry>, Serializable
 
     public double score = 0;
 
-    public final TreeSet<Integer> positions = new TreeSet<>();
+    /**
+     * The positions of the term in the document, in increasing order.
+     * Only the first <code>nrOfPositions</code> cells are in use.
+     */
+    private int[] positions;
+
+    /**
+     * Number of positions stored in <code>positions</code>.
+     */
+    private int nrOfPositions = 0;
 
     public PostingsEntry(int docID)
     {
         this.docID = docID;
+        this.positions = new int[1];
     }
 
     public PostingsEntry(int docID, int position)
     {
-        this.docID = docID;
+        this(docID);
         addPosition(position);
     }
 
-    public PostingsEntry(int docID, Collection<Integer> positions)
+    /**
+     * Creates an entry holding the positions <code>positions[from..to)</code>,
+     * which must be in increasing order.
+     */
+    public PostingsEntry(int docID, int[] positions, int from, int to)
     {
         this.docID = docID;
-        addPositions(positions);
+        this.positions = Arrays.copyOfRange(positions, from, Math.max(to, from + 1));
+        this.nrOfPositions = to - from;
     }
 
-    public void addPosition(int position) {
-        this.positions.add(position);
+    /**
+     * Adds a position. The indexer emits positions in increasing order,
+     * so this is normally an append; anything else is inserted in place
+     * and duplicates are ignored.
+     */
+    public void addPosition(int position)
+    {
+        if (nrOfPositions == 0 || position > positions[nrOfPositions - 1]) {
+            if (nrOfPositions == positions.length) {
+                positions = Arrays.copyOf(positions, nrOfPositions * 2);
+            }
+            positions[nrOfPositions++] = position;
+            return;
+        }
+        int index = Arrays.binarySearch(positions, 0, nrOfPositions, position);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        if (nrOfPositions == positions.length) {
+            positions = Arrays.copyOf(positions, nrOfPositions * 2);
+        }
+        System.arraycopy(positions, index, positions, index + 1, nrOfPositions - index);
+        positions[index] = position;
+        nrOfPositions++;
     }
 
-    public void addPositions(Collection<Integer> positions) {
-        this.positions.addAll(positions);
+    /**
+     * Adds all positions of another entry.
+     */
+    public void addPositions(PostingsEntry other)
+    {
+        for (int i = 0; i < other.nrOfPositions; i++) {
+            addPosition(other.positions[i]);
+        }
+    }
+
+    /**
+     * Number of positions, i.e. the term frequency in this document.
+     */
+    public int size()
+    {
+        return nrOfPositions;
+    }
+
+    /**
+     * Returns the ith position.
+     */
+    public int getPosition(int i)
+    {
+        return positions[i];
+    }
+
+    /**
+     * Returns the backing array of positions. Only the first
+     * <code>size()</code> cells are valid, and the array must not be modified.
+     */
+    public int[] getPositions()
+    {
+        return positions;
+    }
+
+    /**
+     * Iterates over the positions in increasing order.
+     */
+    public PrimitiveIterator.OfInt positionIterator()
+    {
+        return new PrimitiveIterator.OfInt()
+        {
+            int i = 0;
+
+            public boolean hasNext()
+            {
+                return i < nrOfPositions;
+            }
+
+            public int nextInt()
+            {
+                if (i >= nrOfPositions) {
+                    throw new NoSuchElementException();
+                }
+                return positions[i++];
+            }
+        };
     }
 
     public int getDocID()
@@ -72,4 +166,3 @@ public class PostingsEntry implements Comparable<PostingsEntry>, Serializable
         return docID;
     }
 }
-
@@ -0,0 +1,59 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+/**
+ * A cursor over the postings of a PostingsList, in increasing docID order.
+ * A fresh iterator is positioned before the first posting, so
+ * <code>nextDoc()</code> has to be called before anything else.
+ */
+public interface PostingsIterator
+{
+    /**
+     * Returned by <code>docID()</code> and <code>nextDoc()</code> when the
+     * postings are exhausted.
+     */
+    int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /**
+     * The current docID, -1 before the first call to <code>nextDoc()</code>,
+     * or <code>NO_MORE_DOCS</code> at the end.
+     */
+    int docID();
+
+    /**
+     * Moves to the next posting and returns its docID, or
+     * <code>NO_MORE_DOCS</code> if there is none.
+     */
+    int nextDoc();
+
+    /**
+     * Moves forward to the first posting whose docID is at least
+     * <code>target</code> and returns its docID, or <code>NO_MORE_DOCS</code>
+     * if there is none. Does not move if the current posting already
+     * qualifies. Postings that are jumped over are never decoded when the
+     * list allows it, so this is much cheaper than calling
+     * <code>nextDoc()</code> repeatedly.
+     */
+    int advance(int target);
+
+    /**
+     * The term frequency of the current posting.
+     */
+    int tf();
+
+    /**
+     * Returns the next position of the current posting. Positions come in
+     * increasing order and this may be called at most <code>tf()</code>
+     * times per posting.
+     */
+    int nextPosition();
+
+    /**
+     * The number of postings in the underlying list.
+     */
+    int size();
+}
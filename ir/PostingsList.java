@@ -9,57 +9,1459 @@
 
 package ir;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.*;
 
+/**
+ * A postings list stored column by column: one array of docIDs, one of
+ * term frequencies and one of offsets into a positions array shared by all
+ * postings of the list. Postings are kept in increasing docID order and the
+ * positions of a posting are stored right after those of the previous one.
+ *
+ * Once a list is complete it can be compressed. The postings are then cut
+ * into blocks of <code>BLOCK_SIZE</code>, and each block stores its docID
+ * gaps, its term frequencies and the position gaps of each posting as
+ * variable-byte integers. For every block the last docID and the byte
+ * offset where the block starts are kept, so iterators decode one block
+ * at a time, and skip whole blocks when advancing to a docID.
+ *
+ * Each block of a compressed list also knows the largest tf / document
+ * length (or tf / Euclidean document norm) of its postings, which ranked
+ * retrieval uses to skip whole blocks of documents that cannot reach the
+ * top of the ranking.
+ *
+ * Iterators advance by galloping: they probe 1, 2, 4, 8, ... postings (or
+ * blocks) ahead until they pass the target, then binary search the last gap.
+ *
+ * A list can also be the concatenation of other lists (see <code>concat</code>),
+ * such as the parts of a term in the segments of an index, which it reads
+ * through without copying them.
+ */
 public class PostingsList
 {
     /**
-     * The postings list
+     * Number of postings in a compressed block.
+     */
+    public static final int BLOCK_SIZE = 128;
+
+    /**
+     * The document identifiers, in increasing order.
+     */
+    private int[] docIDs = new int[2];
+
+    /**
+     * Number of positions of each posting (the term frequency).
+     */
+    private int[] tfs = new int[2];
+
+    /**
+     * Where the positions of each posting start in <code>positions</code>.
+     */
+    private int[] offsets = new int[2];
+
+    /**
+     * The positions of all postings, posting after posting.
+     */
+    private int[] positions = new int[2];
+
+    /**
+     * Number of postings in this list.
+     */
+    private int size = 0;
+
+    /**
+     * Number of cells of <code>positions</code> in use.
+     */
+    private int nrOfPositions = 0;
+
+    /**
+     * The encoded blocks, or null if the list is not compressed.
+     */
+    private byte[] data = null;
+
+    /**
+     * The last docID of each block.
+     */
+    private int[] blockLastDocIDs;
+
+    /**
+     * Where each block starts in <code>data</code>.
+     */
+    private int[] blockOffsets;
+
+    /**
+     * The inverse document frequency of the term, or NaN if it has not been
+     * computed since the list last changed.
+     */
+    private double idf = Double.NaN;
+
+    /**
+     * For each normalization type, the largest tf / document norm of any
+     * posting, or null if none has been computed since the list last changed.
+     */
+    private double[] maxImpacts;
+
+    /**
+     * For each normalization type, the largest tf / document norm in each block.
+     */
+    private double[][] blockMaxImpacts;
+
+    /**
+     * The block of a compressed list last decoded by <code>get</code>,
+     * <code>getDocID</code> or <code>getTF</code>, so that walking the list
+     * by position decodes each block once. It is never moved once it is set.
+     */
+    private volatile BlockIterator lastBlock;
+
+    /**
+     * True if the columns are shared with the list this one is a prefix of.
      */
-    private final List<PostingsEntry> list = new ArrayList<>();
+    private boolean shared = false;
+
+    /**
+     * The lists this one is the concatenation of, or null.
+     */
+    private PostingsList[] parts;
+
+    /**
+     * The index of the first posting, and of the first block, of each part,
+     * with the totals at the end.
+     */
+    private int[] partStarts;
+    private int[] partBlocks;
 
     /**
      * Number of postings in this list.
      */
     public int size()
     {
-        return list.size();
+        return size;
     }
 
     /**
-     * Returns the ith posting.
+     * Returns a copy of the ith posting.
      */
     public PostingsEntry get(int i)
     {
-        return list.get(i);
+        if (parts != null) {
+            int p = partOf(i);
+            return parts[p].get(i - partStarts[p]);
+        }
+        if (data != null) {
+            return blockOf(i).entryAt(i % BLOCK_SIZE);
+        }
+        return new PostingsEntry(docIDs[i], positions, offsets[i], offsets[i] + tfs[i]);
     }
 
-    public List<PostingsEntry> getList()
+    /**
+     * Returns the docID of the ith posting.
+     */
+    public int getDocID(int i)
     {
-        return list;
+        if (parts != null) {
+            int p = partOf(i);
+            return parts[p].getDocID(i - partStarts[p]);
+        }
+        return data != null ? blockOf(i).blockDocIDs[i % BLOCK_SIZE] : docIDs[i];
+    }
+
+    /**
+     * Returns the term frequency of the ith posting.
+     */
+    public int getTF(int i)
+    {
+        if (parts != null) {
+            int p = partOf(i);
+            return parts[p].getTF(i - partStarts[p]);
+        }
+        return data != null ? blockOf(i).blockTfs[i % BLOCK_SIZE] : tfs[i];
+    }
+
+    /**
+     * Returns an iterator over the postings, positioned before the first one.
+     */
+    public PostingsIterator iterator()
+    {
+        if (parts != null) {
+            return new ConcatIterator();
+        }
+        return data != null ? new BlockIterator() : new ArrayIterator();
     }
 
+    /**
+     * Returns true if the list has been compressed.
+     */
+    public boolean isCompressed()
+    {
+        return data != null;
+    }
+
+    /**
+     * Adds an occurrence of the term at <code>position</code> in document <code>docID</code>.
+     * Since the indexer hands out docIDs and positions in increasing order this is
+     * normally an append; anything else falls back to an insertion in place.
+     */
+    public void add(int docID, int position)
+    {
+        decompress();
+        addPosition(findOrAddPosting(docID), position);
+    }
+
+    /**
+     * Adds a document, and all the positions of the entry, to the list.
+     */
     public void add(PostingsEntry entry)
     {
-        int index = Collections.binarySearch(list, entry, Comparator.comparing(PostingsEntry::getDocID));
+        decompress();
+        int i = findOrAddPosting(entry.docID);
+        for (int j = 0; j < entry.size(); j++) {
+            addPosition(i, entry.getPosition(j));
+        }
+    }
 
-        // Not in the list
-        if (index < 0) {
-            index = -index - 1;
-            list.add(index, entry);
-        } else {
-            list.get(index).addPositions(entry.positions);
+    /**
+     * Adds a document without positions to the list.
+     */
+    public void add(int docID)
+    {
+        decompress();
+        findOrAddPosting(docID);
+    }
+
+    /**
+     * Adds the current posting of an iterator, with all its positions.
+     */
+    public void add(PostingsIterator it)
+    {
+        decompress();
+        int posting = findOrAddPosting(it.docID());
+        for (int j = it.tf(); j > 0; j--) {
+            addPosition(posting, it.nextPosition());
         }
     }
 
+    /**
+     * Adds the postings of another list, all for documents after those in
+     * this one, but those of the documents in <code>skipped</code>.
+     */
+    public void addAll(PostingsList other, BitSet skipped)
+    {
+        PostingsIterator it = other.iterator();
+        while (it.nextDoc() != PostingsIterator.NO_MORE_DOCS) {
+            if (!skipped.get(it.docID())) {
+                add(it);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the list has a posting for any of the documents in
+     * <code>docIDs</code>. The list and the set are walked in step, each
+     * skipping ahead to the next docID of the other.
+     */
+    public boolean containsAny(BitSet docIDs)
+    {
+        PostingsIterator it = iterator();
+        int docID = docIDs.nextSetBit(0);
+        while (docID >= 0) {
+            int found = it.advance(docID);
+            if (found == docID) {
+                return true;
+            }
+            if (found == PostingsIterator.NO_MORE_DOCS) {
+                return false;
+            }
+            docID = docIDs.nextSetBit(found);
+        }
+        return false;
+    }
+
     // added this for 3.1 to make the ranked retrieval after selection faster
-    public boolean fastContains(PostingsEntry entry){
-        return Collections.binarySearch(list, entry, Comparator.comparing(PostingsEntry::getDocID)) >= 0;
+    public boolean fastContains(int docID)
+    {
+        if (data != null || parts != null) {
+            return iterator().advance(docID) == docID;
+        }
+        return size > 0 && docID <= docIDs[size - 1] && Arrays.binarySearch(docIDs, 0, size, docID) >= 0;
     }
 
-    public void sortByScore()
+    /**
+     * Returns the inverse document frequency stored by <code>setIDF</code>, or
+     * NaN if there is none.
+     */
+    public double getIDF()
     {
-        list.sort(Comparator.comparing(PostingsEntry::getScore, Comparator.reverseOrder()));
+        return idf;
     }
-}
 
+    /**
+     * Stores the inverse document frequency of the term, once the index is complete.
+     */
+    public void setIDF(double idf)
+    {
+        this.idf = idf;
+    }
+
+    /**
+     * Returns an upper bound of tf / document norm over all postings, so that
+     * ranked retrieval can skip documents that cannot reach the top. This is
+     * infinity unless <code>computeMaxImpact</code> has been called for the
+     * normalization since the list last changed.
+     */
+    public double getMaxImpact(NormalizationType normType)
+    {
+        int n = normType.ordinal();
+        return maxImpacts != null && blockMaxImpacts[n] != null ? maxImpacts[n] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Computes the bounds returned by <code>getMaxImpact()</code> and, for a
+     * compressed list, by <code>getBlockMaxImpact()</code>.
+     *
+     * @param normType The normalization the bounds are for.
+     * @param docNorms The norm each score is divided by, indexed by docID.
+     */
+    public void computeMaxImpact(NormalizationType normType, double[] docNorms)
+    {
+        if (parts != null) {
+            decompress();
+        }
+        int nrOfBlocks = getNrOfBlocks();
+        double[] blockMax = new double[nrOfBlocks];
+        double max = 0;
+        PostingsIterator it = iterator();
+        for (int i = 0; it.nextDoc() != PostingsIterator.NO_MORE_DOCS; i++) {
+            int docID = it.docID();
+            double impact = docID < docNorms.length && docNorms[docID] > 0
+                    ? it.tf() / docNorms[docID] : Double.POSITIVE_INFINITY;
+            max = Math.max(max, impact);
+            int b = data != null ? i / BLOCK_SIZE : 0;
+            blockMax[b] = Math.max(blockMax[b], impact);
+        }
+        if (maxImpacts == null) {
+            maxImpacts = new double[NormalizationType.values().length];
+            blockMaxImpacts = new double[maxImpacts.length][];
+        }
+        maxImpacts[normType.ordinal()] = max;
+        blockMaxImpacts[normType.ordinal()] = blockMax;
+    }
+
+    /**
+     * Number of blocks that have their own impact bound. A list that is not
+     * compressed is a single block.
+     */
+    public int getNrOfBlocks()
+    {
+        return data != null || parts != null ? blockLastDocIDs.length : 1;
+    }
+
+    /**
+     * Returns the last docID of block <code>b</code>.
+     */
+    public int getBlockLastDocID(int b)
+    {
+        return data != null || parts != null ? blockLastDocIDs[b] : PostingsIterator.NO_MORE_DOCS;
+    }
+
+    /**
+     * Returns an upper bound of tf / document norm over the postings of block <code>b</code>.
+     */
+    public double getBlockMaxImpact(NormalizationType normType, int b)
+    {
+        int n = normType.ordinal();
+        return maxImpacts != null && blockMaxImpacts[n] != null ? blockMaxImpacts[n][b] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the first block from block <code>from</code> on whose last docID
+     * is at least <code>docID</code>, or <code>getNrOfBlocks()</code> if there is none.
+     */
+    public int findBlock(int from, int docID)
+    {
+        if (data == null && parts == null) {
+            return 0;
+        }
+        return gallop(blockLastDocIDs, from, blockLastDocIDs.length, docID);
+    }
+
+    /**
+     * Returns a copy of the list where each docID <code>d</code> is replaced
+     * by <code>newDocIDs[d]</code>, with the postings in the new docID order.
+     * The copy has no idf or score bounds yet.
+     */
+    public PostingsList renumber(int[] newDocIDs)
+    {
+        // the postings of the list, in the order of the new docIDs
+        long[] order = new long[size];
+        int[] starts = new int[size + 1];
+        int[] allPositions = new int[Math.max(nrOfPositions, 16)];
+        PostingsIterator it = iterator();
+        for (int i = 0; it.nextDoc() != PostingsIterator.NO_MORE_DOCS; i++) {
+            order[i] = (long) newDocIDs[it.docID()] << 32 | i;
+            int n = starts[i];
+            if (n + it.tf() > allPositions.length) {
+                allPositions = Arrays.copyOf(allPositions, Math.max(allPositions.length * 2, n + it.tf()));
+            }
+            for (int j = it.tf(); j > 0; j--) {
+                allPositions[n++] = it.nextPosition();
+            }
+            starts[i + 1] = n;
+        }
+        Arrays.sort(order);
+
+        PostingsList renumbered = new PostingsList();
+        for (long key : order) {
+            int docID = (int) (key >>> 32);
+            int i = (int) key;
+            if (starts[i] == starts[i + 1]) {
+                renumbered.add(docID);
+            }
+            for (int j = starts[i]; j < starts[i + 1]; j++) {
+                renumbered.add(docID, allPositions[j]);
+            }
+        }
+        return renumbered;
+    }
+
+    /**
+     * Returns about how many bytes of heap the list takes, for the indexing
+     * statistics. It may be called while the list changes.
+     */
+    public long heapBytes()
+    {
+        long bytes = 80;
+        bytes += heapBytes(docIDs) + heapBytes(tfs) + heapBytes(offsets) + heapBytes(positions);
+        byte[] encoded = data;
+        bytes += encoded == null ? 0 : 16 + encoded.length;
+        bytes += heapBytes(blockLastDocIDs) + heapBytes(blockOffsets);
+        double[] impacts = maxImpacts;
+        bytes += impacts == null ? 0 : 16 + 8L * impacts.length;
+        double[][] blockImpacts = blockMaxImpacts;
+        if (blockImpacts != null) {
+            bytes += 16 + 4L * blockImpacts.length;
+            for (double[] b : blockImpacts) {
+                bytes += b == null ? 0 : 16 + 8L * b.length;
+            }
+        }
+        return bytes;
+    }
+
+    private static long heapBytes(int[] a)
+    {
+        return a == null ? 0 : 16 + 4L * a.length;
+    }
+
+    /**
+     * Encodes the postings into variable-byte blocks and drops the columns.
+     */
+    public void compress()
+    {
+        if (data != null) {
+            return;
+        }
+        if (parts != null) {
+            decompress();
+        }
+        // the bounds were for a single block
+        maxImpacts = null;
+        blockMaxImpacts = null;
+        int nrOfBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blockLastDocIDs = new int[nrOfBlocks];
+        blockOffsets = new int[nrOfBlocks];
+        ByteWriter out = new ByteWriter(size * 3 + nrOfPositions * 2);
+        int lastDocID = 0;
+        for (int block = 0; block < nrOfBlocks; block++) {
+            int from = block * BLOCK_SIZE;
+            int to = Math.min(from + BLOCK_SIZE, size);
+            blockOffsets[block] = out.length;
+            for (int i = from; i < to; i++) {
+                out.writeVInt(docIDs[i] - lastDocID);
+                lastDocID = docIDs[i];
+            }
+            for (int i = from; i < to; i++) {
+                out.writeVInt(tfs[i]);
+            }
+            for (int i = from; i < to; i++) {
+                int lastPosition = 0;
+                for (int j = offsets[i]; j < offsets[i] + tfs[i]; j++) {
+                    out.writeVInt(positions[j] - lastPosition);
+                    lastPosition = positions[j];
+                }
+            }
+            blockLastDocIDs[block] = lastDocID;
+        }
+        data = Arrays.copyOf(out.bytes, out.length);
+        lastBlock = null;
+        docIDs = null;
+        shared = false;
+        tfs = null;
+        offsets = null;
+        positions = null;
+        nrOfPositions = 0;
+    }
+
+    /**
+     * Returns the postings of the documents up to <code>maxDocID</code> as a
+     * list that shares the columns of this one, without copying them. This
+     * list must be uncompressed, and afterwards only get documents after
+     * <code>maxDocID</code>, which leaves the part the prefix sees as it is.
+     * The prefix copies the columns before it is changed itself.
+     */
+    PostingsList prefix(int maxDocID)
+    {
+        int n = size == 0 || docIDs[size - 1] <= maxDocID ? size : gallop(docIDs, 0, size, maxDocID + 1);
+        PostingsList prefix = new PostingsList();
+        prefix.docIDs = docIDs;
+        prefix.tfs = tfs;
+        prefix.offsets = offsets;
+        prefix.positions = positions;
+        prefix.size = n;
+        prefix.nrOfPositions = n < size ? offsets[n] : nrOfPositions;
+        prefix.shared = true;
+        return prefix;
+    }
+
+    /**
+     * Returns the postings of the documents up to <code>maxDocID</code> like
+     * <code>prefix</code>, with the idf and the bounds of this list, which
+     * hold for every prefix of it as well.
+     */
+    PostingsList boundedPrefix(int maxDocID)
+    {
+        PostingsList prefix = prefix(maxDocID);
+        prefix.idf = idf;
+        prefix.maxImpacts = maxImpacts == null ? null : maxImpacts.clone();
+        prefix.blockMaxImpacts = blockMaxImpacts == null ? null : blockMaxImpacts.clone();
+        return prefix;
+    }
+
+    /**
+     * Sets the bound of an uncompressed list, which is a single block, to
+     * <code>max</code>, computed by the caller for the normalization.
+     */
+    void setMaxImpact(NormalizationType normType, double max)
+    {
+        if (maxImpacts == null) {
+            maxImpacts = new double[NormalizationType.values().length];
+            blockMaxImpacts = new double[maxImpacts.length][];
+        }
+        maxImpacts[normType.ordinal()] = max;
+        blockMaxImpacts[normType.ordinal()] = new double[]{max};
+    }
+
+    /**
+     * Returns a copy of the list that shares its blocks, or its columns, and
+     * its bounds with this one. The blocks of a compressed list are never
+     * changed once written, and the copy copies the columns before it is
+     * changed, so the copy can get an idf and bounds of its own, or be changed,
+     * without this list changing.
+     */
+    PostingsList share()
+    {
+        PostingsList copy;
+        if (data == null) {
+            copy = prefix(Integer.MAX_VALUE);
+        } else {
+            copy = new PostingsList();
+            copy.size = size;
+            copy.data = data;
+            copy.blockLastDocIDs = blockLastDocIDs;
+            copy.blockOffsets = blockOffsets;
+            copy.docIDs = null;
+            copy.tfs = null;
+            copy.offsets = null;
+            copy.positions = null;
+        }
+        copy.idf = idf;
+        copy.maxImpacts = maxImpacts == null ? null : maxImpacts.clone();
+        copy.blockMaxImpacts = blockMaxImpacts == null ? null : blockMaxImpacts.clone();
+        return copy;
+    }
+
+    /**
+     * Returns the postings of <code>lists</code> one after the other, as a
+     * list that reads through them without copying them. The docIDs of each
+     * list must all come after those of the lists before it, and the lists
+     * must not change afterwards. The lists that are empty are left out, and
+     * a single list is returned as it is.
+     *
+     * The blocks of the concatenation are those of the lists, so it keeps
+     * their bounds: its own bound is the largest of theirs. Its idf is that of
+     * the first list that has one. Changing it copies the postings first.
+     */
+    static PostingsList concat(List<PostingsList> lists)
+    {
+        List<PostingsList> nonEmpty = new ArrayList<>();
+        for (PostingsList list : lists) {
+            if (list.size() > 0) {
+                nonEmpty.add(list);
+            }
+        }
+        if (nonEmpty.isEmpty()) {
+            return new PostingsList();
+        }
+        if (nonEmpty.size() == 1) {
+            return nonEmpty.get(0);
+        }
+        PostingsList concat = new PostingsList();
+        concat.docIDs = null;
+        concat.tfs = null;
+        concat.offsets = null;
+        concat.positions = null;
+        concat.parts = nonEmpty.toArray(new PostingsList[0]);
+        int n = concat.parts.length;
+        concat.partStarts = new int[n + 1];
+        concat.partBlocks = new int[n + 1];
+        for (int p = 0; p < n; p++) {
+            PostingsList part = concat.parts[p];
+            concat.partStarts[p + 1] = concat.partStarts[p] + part.size();
+            concat.partBlocks[p + 1] = concat.partBlocks[p] + part.getNrOfBlocks();
+            if (Double.isNaN(concat.idf)) {
+                concat.idf = part.getIDF();
+            }
+        }
+        concat.size = concat.partStarts[n];
+        concat.blockLastDocIDs = new int[concat.partBlocks[n]];
+        concat.maxImpacts = new double[NormalizationType.values().length];
+        concat.blockMaxImpacts = new double[concat.maxImpacts.length][concat.partBlocks[n]];
+        for (int p = 0; p < n; p++) {
+            PostingsList part = concat.parts[p];
+            for (int b = 0; b < part.getNrOfBlocks(); b++) {
+                int lastDocID = part.getBlockLastDocID(b);
+                // the single block of a list that is not compressed ends with its last posting
+                concat.blockLastDocIDs[concat.partBlocks[p] + b] = lastDocID == PostingsIterator.NO_MORE_DOCS
+                        ? part.getDocID(part.size() - 1) : lastDocID;
+                for (NormalizationType normType : NormalizationType.values()) {
+                    concat.blockMaxImpacts[normType.ordinal()][concat.partBlocks[p] + b] = part.getBlockMaxImpact(normType, b);
+                }
+            }
+            for (NormalizationType normType : NormalizationType.values()) {
+                int k = normType.ordinal();
+                concat.maxImpacts[k] = Math.max(concat.maxImpacts[k], part.getMaxImpact(normType));
+            }
+        }
+        return concat;
+    }
+
+    /**
+     * Returns the part of a concatenation holding the ith posting.
+     */
+    private int partOf(int i)
+    {
+        int p = Arrays.binarySearch(partStarts, i);
+        if (p < 0) {
+            return -p - 2;
+        }
+        // the parts are not empty, so no two start at the same posting
+        return p;
+    }
+
+    /**
+     * Decodes a compressed list back into columns, or copies the columns it
+     * shares with another list, or the postings of the lists it concatenates,
+     * so that it can be modified.
+     */
+    private void decompress()
+    {
+        idf = Double.NaN;
+        maxImpacts = null;
+        blockMaxImpacts = null;
+        if (parts != null) {
+            PostingsList copy = new PostingsList();
+            PostingsIterator it = new ConcatIterator();
+            while (it.nextDoc() != PostingsIterator.NO_MORE_DOCS) {
+                copy.add(it);
+            }
+            docIDs = copy.docIDs;
+            tfs = copy.tfs;
+            offsets = copy.offsets;
+            positions = copy.positions;
+            nrOfPositions = copy.nrOfPositions;
+            parts = null;
+            partStarts = null;
+            partBlocks = null;
+            blockLastDocIDs = null;
+            return;
+        }
+        if (shared) {
+            docIDs = Arrays.copyOf(docIDs, Math.max(size, 2));
+            tfs = Arrays.copyOf(tfs, docIDs.length);
+            offsets = Arrays.copyOf(offsets, docIDs.length);
+            positions = Arrays.copyOf(positions, Math.max(nrOfPositions, 2));
+            shared = false;
+        }
+        if (data == null) {
+            return;
+        }
+        int[] newDocIDs = new int[Math.max(size, 2)];
+        int[] newTfs = new int[newDocIDs.length];
+        int[] newOffsets = new int[newDocIDs.length];
+        int[] newPositions = new int[2];
+        int n = 0;
+        PostingsIterator it = new BlockIterator();
+        for (int i = 0; it.nextDoc() != PostingsIterator.NO_MORE_DOCS; i++) {
+            newDocIDs[i] = it.docID();
+            newTfs[i] = it.tf();
+            newOffsets[i] = n;
+            if (n + it.tf() > newPositions.length) {
+                newPositions = Arrays.copyOf(newPositions, Math.max(newPositions.length * 2, n + it.tf()));
+            }
+            for (int j = it.tf(); j > 0; j--) {
+                newPositions[n++] = it.nextPosition();
+            }
+        }
+        docIDs = newDocIDs;
+        tfs = newTfs;
+        offsets = newOffsets;
+        positions = newPositions;
+        nrOfPositions = n;
+        data = null;
+        lastBlock = null;
+        blockLastDocIDs = null;
+        blockOffsets = null;
+    }
+
+    /**
+     * Writes the list in its compressed form, with its idf and impact bounds,
+     * compressing it first if needed.
+     */
+    public void writeTo(DataOutput out) throws IOException
+    {
+        compress();
+        out.writeInt(size);
+        out.writeInt(blockLastDocIDs.length);
+        for (int b = 0; b < blockLastDocIDs.length; b++) {
+            out.writeInt(blockLastDocIDs[b]);
+            out.writeInt(blockOffsets[b]);
+        }
+        out.writeInt(data.length);
+        out.write(data);
+        out.writeDouble(idf);
+        for (NormalizationType normType : NormalizationType.values()) {
+            int n = normType.ordinal();
+            boolean computed = maxImpacts != null && blockMaxImpacts[n] != null;
+            out.writeBoolean(computed);
+            if (computed) {
+                out.writeDouble(maxImpacts[n]);
+                for (double impact : blockMaxImpacts[n]) {
+                    out.writeDouble(impact);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a list written by <code>writeTo</code>. The list is compressed.
+     */
+    public static PostingsList readFrom(DataInput in) throws IOException
+    {
+        PostingsList list = new PostingsList();
+        list.size = in.readInt();
+        int nrOfBlocks = in.readInt();
+        list.blockLastDocIDs = new int[nrOfBlocks];
+        list.blockOffsets = new int[nrOfBlocks];
+        for (int b = 0; b < nrOfBlocks; b++) {
+            list.blockLastDocIDs[b] = in.readInt();
+            list.blockOffsets[b] = in.readInt();
+        }
+        list.data = new byte[in.readInt()];
+        in.readFully(list.data);
+        list.docIDs = null;
+        list.tfs = null;
+        list.offsets = null;
+        list.positions = null;
+        list.idf = in.readDouble();
+        for (NormalizationType normType : NormalizationType.values()) {
+            if (in.readBoolean()) {
+                double[] blockMax = new double[nrOfBlocks];
+                double max = in.readDouble();
+                for (int b = 0; b < nrOfBlocks; b++) {
+                    blockMax[b] = in.readDouble();
+                }
+                if (list.maxImpacts == null) {
+                    list.maxImpacts = new double[NormalizationType.values().length];
+                    list.blockMaxImpacts = new double[list.maxImpacts.length][];
+                }
+                list.maxImpacts[normType.ordinal()] = max;
+                list.blockMaxImpacts[normType.ordinal()] = blockMax;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the decoded block holding the ith posting of a compressed list.
+     * The block is only read from, so it can be shared between threads.
+     */
+    private BlockIterator blockOf(int i)
+    {
+        BlockIterator it = lastBlock;
+        if (it == null || it.block != i / BLOCK_SIZE) {
+            it = new BlockIterator();
+            it.loadBlock(i / BLOCK_SIZE);
+            lastBlock = it;
+        }
+        return it;
+    }
+
+    /**
+     * Iterates over the columns of an uncompressed list.
+     */
+    private class ArrayIterator implements PostingsIterator
+    {
+        int i = -1;
+        int position;
+
+        public int docID()
+        {
+            return i < 0 ? -1 : i < size ? docIDs[i] : NO_MORE_DOCS;
+        }
+
+        public int nextDoc()
+        {
+            if (i < size) {
+                i++;
+            }
+            position = i < size ? offsets[i] : 0;
+            return docID();
+        }
+
+        public int advance(int target)
+        {
+            if (i >= 0 && docID() >= target) {
+                return docID();
+            }
+            i = gallop(docIDs, Math.max(i, 0), size, target);
+            position = i < size ? offsets[i] : 0;
+            return docID();
+        }
+
+        public int tf()
+        {
+            return tfs[i];
+        }
+
+        public int nextPosition()
+        {
+            return positions[position++];
+        }
+
+        public int size()
+        {
+            return size;
+        }
+    }
+
+    /**
+     * Iterates over the lists of a concatenation one after the other. Advancing
+     * skips the lists that end before the target without looking into them.
+     */
+    private class ConcatIterator implements PostingsIterator
+    {
+        /** The current part, and an iterator over it. */
+        int part = -1;
+        PostingsIterator it;
+
+        public int docID()
+        {
+            return part < 0 ? -1 : it.docID();
+        }
+
+        public int nextDoc()
+        {
+            if (part < 0) {
+                moveTo(0);
+            }
+            int docID = it.nextDoc();
+            while (docID == NO_MORE_DOCS && part < parts.length - 1) {
+                moveTo(part + 1);
+                docID = it.nextDoc();
+            }
+            return docID;
+        }
+
+        public int advance(int target)
+        {
+            if (part >= 0 && docID() >= target) {
+                return docID();
+            }
+            if (part < 0) {
+                moveTo(0);
+            }
+            // the last block of each part ends with its last posting
+            int next = part;
+            while (next < parts.length - 1 && blockLastDocIDs[partBlocks[next + 1] - 1] < target) {
+                next++;
+            }
+            if (next != part) {
+                moveTo(next);
+            }
+            return it.advance(target);
+        }
+
+        public int tf()
+        {
+            return it.tf();
+        }
+
+        public int nextPosition()
+        {
+            return it.nextPosition();
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        private void moveTo(int p)
+        {
+            part = p;
+            it = parts[p].iterator();
+        }
+    }
+
+    /**
+     * Iterates over a compressed list, decoding the docIDs and term frequencies
+     * of one block at a time. Positions are only decoded when asked for.
+     */
+    private class BlockIterator implements PostingsIterator
+    {
+        /** The docIDs and term frequencies of the current block. */
+        final int[] blockDocIDs = new int[BLOCK_SIZE];
+        final int[] blockTfs = new int[BLOCK_SIZE];
+
+        /** The current block, and the number of postings in it. */
+        int block = -1;
+        int blockSize = 0;
+
+        /** The current posting within the block. */
+        int current = -1;
+
+        /** Where the positions of the first posting of the block start in <code>data</code>. */
+        int blockPositions;
+
+        /** Where the positions of posting <code>positionsOf</code> start in <code>data</code>. */
+        int positionsPointer;
+        int positionsOf;
+
+        /** Positions left to read for the current posting, and the last one read. */
+        int positionsLeft;
+        int lastPosition;
+
+        /** Read pointer into <code>data</code>. */
+        int pointer;
+
+        public int docID()
+        {
+            if (block < 0) {
+                return -1;
+            }
+            return current < blockSize ? blockDocIDs[current] : NO_MORE_DOCS;
+        }
+
+        public int nextDoc()
+        {
+            if (block < 0 || (current == blockSize - 1 && block < blockLastDocIDs.length - 1)) {
+                loadBlock(block + 1);
+            } else if (current < blockSize) {
+                current++;
+            }
+            return docID();
+        }
+
+        public int advance(int target)
+        {
+            if (block >= 0 && docID() >= target) {
+                return docID();
+            }
+            if (block < 0 || blockLastDocIDs[block] < target) {
+                // Skip the blocks that end before the target without decoding them
+                loadBlock(gallop(blockLastDocIDs, Math.max(block, 0), blockLastDocIDs.length, target));
+            }
+            current = gallop(blockDocIDs, current, blockSize, target);
+            return docID();
+        }
+
+        public int tf()
+        {
+            return blockTfs[current];
+        }
+
+        public int nextPosition()
+        {
+            if (positionsOf < current) {
+                // Skip what is left of the positions of the postings before the current one
+                pointer = positionsPointer;
+                for (int j = positionsLeft; j > 0; j--) {
+                    skipVInt();
+                }
+                for (int i = positionsOf + 1; i < current; i++) {
+                    for (int j = blockTfs[i]; j > 0; j--) {
+                        skipVInt();
+                    }
+                }
+                positionsPointer = pointer;
+                positionsOf = current;
+                positionsLeft = blockTfs[current];
+                lastPosition = 0;
+            }
+            pointer = positionsPointer;
+            int position = lastPosition + readVInt();
+            positionsPointer = pointer;
+            lastPosition = position;
+            if (--positionsLeft == 0) {
+                // Next time, continue with the positions of the next posting
+                positionsOf++;
+                positionsLeft = positionsOf < blockSize ? blockTfs[positionsOf] : 0;
+                lastPosition = 0;
+            }
+            return position;
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * Decodes the docIDs and term frequencies of a block, and moves to its first posting.
+         */
+        void loadBlock(int b)
+        {
+            block = b;
+            current = 0;
+            if (b >= blockLastDocIDs.length) {
+                blockSize = 0;
+                return;
+            }
+            blockSize = Math.min(BLOCK_SIZE, size - b * BLOCK_SIZE);
+            pointer = blockOffsets[b];
+            int docID = b == 0 ? 0 : blockLastDocIDs[b - 1];
+            for (int i = 0; i < blockSize; i++) {
+                docID += readVInt();
+                blockDocIDs[i] = docID;
+            }
+            for (int i = 0; i < blockSize; i++) {
+                blockTfs[i] = readVInt();
+            }
+            blockPositions = pointer;
+            positionsPointer = pointer;
+            positionsOf = 0;
+            positionsLeft = blockSize > 0 ? blockTfs[0] : 0;
+            lastPosition = 0;
+        }
+
+        /**
+         * Returns a copy of posting <code>j</code> of the current block. Unlike
+         * <code>nextPosition</code> this leaves the iterator as it is.
+         */
+        PostingsEntry entryAt(int j)
+        {
+            int p = blockPositions;
+            for (int i = 0; i < j; i++) {
+                for (int k = blockTfs[i]; k > 0; k--) {
+                    while (data[p++] < 0) {
+                    }
+                }
+            }
+            PostingsEntry entry = new PostingsEntry(blockDocIDs[j]);
+            int position = 0;
+            for (int k = blockTfs[j]; k > 0; k--) {
+                byte b = data[p++];
+                int gap = b & 0x7f;
+                for (int shift = 7; b < 0; shift += 7) {
+                    b = data[p++];
+                    gap |= (b & 0x7f) << shift;
+                }
+                position += gap;
+                entry.addPosition(position);
+            }
+            return entry;
+        }
+
+        int readVInt()
+        {
+            byte b = data[pointer++];
+            int value = b & 0x7f;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = data[pointer++];
+                value |= (b & 0x7f) << shift;
+            }
+            return value;
+        }
+
+        void skipVInt()
+        {
+            while (data[pointer++] < 0) {
+            }
+        }
+    }
+
+    /**
+     * Returns the first index in <code>values[from..to)</code>, which is sorted,
+     * holding a value of at least <code>target</code>, or <code>to</code> if
+     * there is none. Probes exponentially growing steps ahead of <code>from</code>
+     * and then binary searches, so the cost is logarithmic in the distance moved.
+     */
+    static int gallop(int[] values, int from, int to, int target)
+    {
+        if (from >= to || values[from] >= target) {
+            return from;
+        }
+        // values[low] < target all along
+        int low = from;
+        int step = 1;
+        int high = from + 1;
+        while (high < to && values[high] < target) {
+            low = high;
+            step <<= 1;
+            high = low + step;
+        }
+        int index = Arrays.binarySearch(values, low + 1, Math.min(high + 1, to), target);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Writes a list in the layout of <code>writeTo</code> straight to a file,
+     * as its postings are given in docID order, holding one block of them at a
+     * time. The number of postings must be known up front, since it tells
+     * where the blocks start. The idf and the NUMBER_OF_WORDS bounds are
+     * written as well, and the squared tf-idf weights added to the document
+     * norms. The EUCLIDEAN bounds need the norms of all the documents, so room
+     * is left for them, to be filled in by <code>writeMaxImpact</code>.
+     */
+    static class Writer
+    {
+        private final RandomAccessFile file;
+        private final long start;
+        private final long dataStart;
+        private final int size;
+        private final double idf;
+        private final double[] lengths;
+        private final double[] norms;
+
+        private final int[] blockLastDocIDs;
+        private final int[] blockOffsets;
+        private final double[] blockMax;
+        private double max = 0;
+
+        /** The postings of the current block, and the gaps of their positions. */
+        private final int[] docIDs = new int[BLOCK_SIZE];
+        private final int[] tfs = new int[BLOCK_SIZE];
+        private final ByteWriter positions = new ByteWriter(4 * BLOCK_SIZE);
+        private int n = 0;
+        private int lastPosition;
+
+        private final ByteWriter out = new ByteWriter(8 * BLOCK_SIZE);
+        private int block = 0;
+        private int dataLength = 0;
+
+        /**
+         * @param file    The file to write to.
+         * @param start   Where the list starts in the file.
+         * @param size    The number of postings of the list.
+         * @param idf     The idf of the term.
+         * @param lengths The document lengths, indexed by docID.
+         * @param norms   The squared document norms so far, indexed by docID.
+         */
+        Writer(RandomAccessFile file, long start, int size, double idf, double[] lengths, double[] norms)
+        {
+            this.file = file;
+            this.start = start;
+            this.size = size;
+            this.idf = idf;
+            this.lengths = lengths;
+            this.norms = norms;
+            int nrOfBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            blockLastDocIDs = new int[nrOfBlocks];
+            blockOffsets = new int[nrOfBlocks];
+            blockMax = new double[nrOfBlocks];
+            dataStart = start + 12 + 8L * nrOfBlocks;
+        }
+
+        /**
+         * Adds the current posting of an iterator, with all its positions. A
+         * posting for the same document as the one before continues it.
+         */
+        void add(PostingsIterator it) throws IOException
+        {
+            if (n == 0 || docIDs[n - 1] != it.docID()) {
+                if (n == BLOCK_SIZE) {
+                    writeBlock();
+                }
+                docIDs[n] = it.docID();
+                tfs[n] = 0;
+                lastPosition = 0;
+                n++;
+            }
+            for (int j = it.tf(); j > 0; j--) {
+                int position = it.nextPosition();
+                positions.writeVInt(position - lastPosition);
+                lastPosition = position;
+                tfs[n - 1]++;
+            }
+        }
+
+        private void writeBlock() throws IOException
+        {
+            int lastDocID = block == 0 ? 0 : blockLastDocIDs[block - 1];
+            out.length = 0;
+            for (int i = 0; i < n; i++) {
+                out.writeVInt(docIDs[i] - lastDocID);
+                lastDocID = docIDs[i];
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeVInt(tfs[i]);
+                double weight = tfs[i] * idf;
+                norms[docIDs[i]] += weight * weight;
+                double impact = docIDs[i] < lengths.length && lengths[docIDs[i]] > 0
+                        ? tfs[i] / lengths[docIDs[i]] : Double.POSITIVE_INFINITY;
+                max = Math.max(max, impact);
+                blockMax[block] = Math.max(blockMax[block], impact);
+            }
+            file.seek(dataStart + dataLength);
+            file.write(out.bytes, 0, out.length);
+            file.write(positions.bytes, 0, positions.length);
+            blockLastDocIDs[block] = lastDocID;
+            blockOffsets[block] = dataLength;
+            dataLength += out.length + positions.length;
+            positions.length = 0;
+            n = 0;
+            block++;
+        }
+
+        /**
+         * Writes the last block, the block table and the bounds.
+         *
+         * @return The number of bytes of the list.
+         */
+        int finish() throws IOException
+        {
+            if (n > 0) {
+                writeBlock();
+            }
+            if (block != blockLastDocIDs.length) {
+                throw new IllegalStateException("The list has " + block + " blocks instead of " + blockLastDocIDs.length);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream tail = new DataOutputStream(bytes);
+            tail.writeDouble(idf);
+            for (NormalizationType normType : NormalizationType.values()) {
+                tail.writeBoolean(true);
+                boolean now = normType == NormalizationType.NUMBER_OF_WORDS;
+                tail.writeDouble(now ? max : Double.POSITIVE_INFINITY);
+                for (int b = 0; b < block; b++) {
+                    tail.writeDouble(now ? blockMax[b] : Double.POSITIVE_INFINITY);
+                }
+            }
+            file.seek(dataStart + dataLength);
+            file.write(bytes.toByteArray());
+
+            bytes.reset();
+            tail.writeInt(size);
+            tail.writeInt(block);
+            for (int b = 0; b < block; b++) {
+                tail.writeInt(blockLastDocIDs[b]);
+                tail.writeInt(blockOffsets[b]);
+            }
+            tail.writeInt(dataLength);
+            file.seek(start);
+            file.write(bytes.toByteArray());
+            return (int) (dataStart - start) + dataLength + 8 + NormalizationType.values().length * (9 + 8 * block);
+        }
+    }
+
+    /**
+     * Computes the bounds of <code>normType</code> for a list that a Writer
+     * wrote to <code>file</code> at <code>start</code>, and writes them in
+     * the room left for them, reading the list back one block at a time.
+     *
+     * @param docNorms The norm each score is divided by, indexed by docID.
+     */
+    static void writeMaxImpact(RandomAccessFile file, long start, NormalizationType normType, double[] docNorms) throws IOException
+    {
+        file.seek(start);
+        int size = file.readInt();
+        int nrOfBlocks = file.readInt();
+        byte[] table = new byte[8 * nrOfBlocks + 4];
+        file.readFully(table);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(table));
+        int[] blockLastDocIDs = new int[nrOfBlocks];
+        int[] blockOffsets = new int[nrOfBlocks + 1];
+        for (int b = 0; b < nrOfBlocks; b++) {
+            blockLastDocIDs[b] = in.readInt();
+            blockOffsets[b] = in.readInt();
+        }
+        blockOffsets[nrOfBlocks] = in.readInt();
+        long dataStart = start + 12 + 8L * nrOfBlocks;
+
+        double[] blockMax = new double[nrOfBlocks];
+        double max = 0;
+        int[] docIDs = new int[BLOCK_SIZE];
+        int[] tfs = new int[BLOCK_SIZE];
+        byte[] block = new byte[0];
+        for (int b = 0; b < nrOfBlocks; b++) {
+            // only the docID gaps and the tfs are needed, but the block is read whole
+            int length = blockOffsets[b + 1] - blockOffsets[b];
+            if (block.length < length) {
+                block = new byte[Math.max(length, 2 * block.length)];
+            }
+            file.seek(dataStart + blockOffsets[b]);
+            file.readFully(block, 0, length);
+            int n = Math.min(BLOCK_SIZE, size - b * BLOCK_SIZE);
+            int pointer = readVInts(block, 0, docIDs, n);
+            readVInts(block, pointer, tfs, n);
+            int docID = b == 0 ? 0 : blockLastDocIDs[b - 1];
+            for (int i = 0; i < n; i++) {
+                docID += docIDs[i];
+                double impact = docID < docNorms.length && docNorms[docID] > 0
+                        ? tfs[i] / docNorms[docID] : Double.POSITIVE_INFINITY;
+                max = Math.max(max, impact);
+                blockMax[b] = Math.max(blockMax[b], impact);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream bounds = new DataOutputStream(bytes);
+        bounds.writeDouble(max);
+        for (double impact : blockMax) {
+            bounds.writeDouble(impact);
+        }
+        // past the data, the idf, the bounds before these and their flag
+        file.seek(dataStart + blockOffsets[nrOfBlocks] + 8 + normType.ordinal() * (9 + 8L * nrOfBlocks) + 1);
+        file.write(bytes.toByteArray());
+    }
+
+    /**
+     * Decodes <code>n</code> variable-byte integers from <code>bytes</code>,
+     * starting at <code>from</code>, into <code>values</code>.
+     *
+     * @return Where the next integer starts.
+     */
+    private static int readVInts(byte[] bytes, int from, int[] values, int n)
+    {
+        int pointer = from;
+        for (int i = 0; i < n; i++) {
+            byte b = bytes[pointer++];
+            int value = b & 0x7f;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = bytes[pointer++];
+                value |= (b & 0x7f) << shift;
+            }
+            values[i] = value;
+        }
+        return pointer;
+    }
+
+    /**
+     * A growable byte array to encode variable-byte integers into.
+     */
+    private static class ByteWriter
+    {
+        byte[] bytes;
+        int length = 0;
+
+        ByteWriter(int capacity)
+        {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        /**
+         * Writes 7 bits per byte, low bits first. The high bit is set on
+         * every byte but the last.
+         */
+        void writeVInt(int value)
+        {
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7f) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+    }
+
+    /**
+     * Returns the index of the posting for <code>docID</code>, creating it if needed.
+     */
+    private int findOrAddPosting(int docID)
+    {
+        if (size > 0 && docIDs[size - 1] == docID) {
+            return size - 1;
+        }
+        if (size == 0 || docIDs[size - 1] < docID) {
+            ensurePostingsCapacity();
+            docIDs[size] = docID;
+            tfs[size] = 0;
+            offsets[size] = nrOfPositions;
+            return size++;
+        }
+        // Out of order: insert the posting in place
+        int index = Arrays.binarySearch(docIDs, 0, size, docID);
+        if (index >= 0) {
+            return index;
+        }
+        index = -index - 1;
+        ensurePostingsCapacity();
+        System.arraycopy(docIDs, index, docIDs, index + 1, size - index);
+        System.arraycopy(tfs, index, tfs, index + 1, size - index);
+        System.arraycopy(offsets, index, offsets, index + 1, size - index);
+        docIDs[index] = docID;
+        tfs[index] = 0;
+        offsets[index] = offsets[index + 1];
+        size++;
+        return index;
+    }
+
+    /**
+     * Adds a position to the ith posting, keeping its positions sorted and unique.
+     */
+    private void addPosition(int i, int position)
+    {
+        int start = offsets[i];
+        int end = start + tfs[i];
+        int at;
+        if (tfs[i] == 0 || positions[end - 1] < position) {
+            at = end;
+        } else {
+            at = Arrays.binarySearch(positions, start, end, position);
+            if (at >= 0) {
+                return;
+            }
+            at = -at - 1;
+        }
+        if (nrOfPositions == positions.length) {
+            positions = Arrays.copyOf(positions, nrOfPositions * 2);
+        }
+        if (at < nrOfPositions) {
+            // Not at the end of the shared array: make room and move the later postings
+            System.arraycopy(positions, at, positions, at + 1, nrOfPositions - at);
+            for (int j = i + 1; j < size; j++) {
+                offsets[j]++;
+            }
+        }
+        positions[at] = position;
+        tfs[i]++;
+        nrOfPositions++;
+    }
+
+    private void ensurePostingsCapacity()
+    {
+        if (size == docIDs.length) {
+            int capacity = size * 2;
+            docIDs = Arrays.copyOf(docIDs, capacity);
+            tfs = Arrays.copyOf(tfs, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+    }
+}
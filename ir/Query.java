@@ -129,7 +129,7 @@ public class Query
     /// NEW
     // assignment 3
     // 3.1
-    public void relevanceFeedback(PostingsList results, boolean[] docIsRelevant, Engine engine)
+    public void relevanceFeedback(SearchResult results, boolean[] docIsRelevant, Engine engine)
     {
         // count the number of relevant documents
         int numOfRelevantDoc = 0;
@@ -171,11 +171,11 @@ public class Query
 
             // if the document "i" is relevant:
 
-            // get the relevant document (PE) "i" in the results list (PL)
-            PostingsEntry entry = results.get(i);
+            // get the relevant document "i" in the results list
+            int docID = results.getDocID(i);
 
             // Getting terms in the document from the index
-            String docName = engine.index.docNames.get(entry.docID);
+            String docName = engine.index.docNames.get(docID);
 
             // tokenize the document and get a list of words
             List<String> wordsList = getWords(docName);
@@ -0,0 +1,92 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+/**
+ * Sums up the scores of documents during one ranked query.
+ *
+ * Scores are kept in a dense array indexed by docID, and the documents
+ * that received a score are remembered in the order they were first
+ * seen. An accumulator belongs to a single query, so queries running on
+ * different threads never share any state.
+ */
+public class ScoreAccumulator
+{
+    /**
+     * The score of each document, indexed by docID.
+     */
+    private double[] scores;
+
+    /**
+     * True for the documents that have been given a score.
+     */
+    private boolean[] seen;
+
+    /**
+     * The documents that have been given a score, in the order they were first seen.
+     */
+    private int[] docIDs = new int[16];
+
+    /**
+     * Number of documents that have been given a score.
+     */
+    private int size = 0;
+
+    /**
+     * @param nrOfDocuments The expected number of documents; docIDs beyond it are still accepted.
+     */
+    public ScoreAccumulator(int nrOfDocuments)
+    {
+        scores = new double[Math.max(nrOfDocuments, 1)];
+        seen = new boolean[scores.length];
+    }
+
+    /**
+     * Adds <code>score</code> to the score of document <code>docID</code>.
+     */
+    public void add(int docID, double score)
+    {
+        if (docID >= scores.length) {
+            int capacity = Math.max(scores.length * 2, docID + 1);
+            scores = Arrays.copyOf(scores, capacity);
+            seen = Arrays.copyOf(seen, capacity);
+        }
+        if (!seen[docID]) {
+            seen[docID] = true;
+            if (size == docIDs.length) {
+                docIDs = Arrays.copyOf(docIDs, size * 2);
+            }
+            docIDs[size++] = docID;
+        }
+        scores[docID] += score;
+    }
+
+    /**
+     * Number of documents that have been given a score.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the ith document that was given a score.
+     */
+    public int getDocID(int i)
+    {
+        return docIDs[i];
+    }
+
+    /**
+     * Returns the score of document <code>docID</code>.
+     */
+    public double getScore(int docID)
+    {
+        return docID < scores.length ? scores[docID] : 0;
+    }
+}
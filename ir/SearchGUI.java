@@ -18,6 +18,10 @@ import java.io.*;
 import java.util.LinkedList;
 import java.util.Queue;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 
 /**
@@ -39,7 +43,19 @@ public class SearchGUI extends JFrame
     /**
      * The results of a search query.
      */
-    private PostingsList results;
+    private SearchResult results;
+
+    /**
+     * Runs the last search again for more results. Only the results that are
+     * displayed are fetched, so this is used when the user asks for more.
+     */
+    private BiFunction<Searcher, Integer, SearchResult> searchAgain;
+
+    /**
+     * Number of searches started. A search that finishes after a later one
+     * was started is not displayed.
+     */
+    private int searchesStarted = 0;
 
     /**
      * The query type (either intersection, phrase, or ranked).
@@ -192,39 +208,45 @@ public class SearchGUI extends JFrame
                     }
                     query.relevanceFeedback(results, relevant, engine);
                 }
-                // Search and print results. Access to the index is synchronized since
-                // we don't want to search at the same time we're indexing new files
-                // (this might corrupt the index).
+                // Search and print results. The search runs on the view of the index
+                // published last, in the background (see runSearch), so it does not
+                // disturb the indexer, and the window responds while it waits.
                 long startTime = System.currentTimeMillis();
-                synchronized (engine.indexLock) {
-                    results = engine.searcher.search(query, queryType, rankingType, normType);
-                }
-                long elapsedTime = System.currentTimeMillis() - startTime;
-                // Display the first few results + a button to see all results.
-                //
-                // We don't want to show all results directly since the displaying itself
-                // might take a long time, if there are many results.
-                if (results != null) {
-                    displayResults(MAX_RESULTS, elapsedTime / 1000.0);
-                } else {
-                    displayInfoText("Found 0 matching document(s)");
-
-                    if (engine.speller != null) {
-                        SpellingOptionsDialog dialog = new SpellingOptionsDialog(50);
-                        startTime = System.currentTimeMillis();
-                        String[] corrections = engine.speller.check(query, 10);
-                        elapsedTime = System.currentTimeMillis() - startTime;
-                        System.err.println("It took " + elapsedTime / 1000.0 + "s to check spelling");
-                        if (corrections != null && corrections.length > 0) {
-                            String choice = dialog.show(corrections, corrections[0]);
-                            if (choice != null) {
-                                queryWindow.setText(choice);
-                                queryWindow.grabFocus();
-                                this.actionPerformed(e);
+                Query q = query;
+                QueryType qt = queryType;
+                RankingType rt = rankingType;
+                NormalizationType nt = normType;
+                BiFunction<Searcher, Integer, SearchResult> search = (searcher, k) -> searcher.search(q, qt, rt, nt, 0, k);
+                searchAgain = search;
+                runSearch(searcher -> search.apply(searcher, MAX_RESULTS), found -> {
+                    results = found;
+                    long elapsedTime = System.currentTimeMillis() - startTime;
+                    // Display the first few results + a button to see all results.
+                    //
+                    // We don't want to show all results directly since the displaying itself
+                    // might take a long time, if there are many results.
+                    if (results != null) {
+                        displayResults(MAX_RESULTS, elapsedTime / 1000.0);
+                    } else {
+                        displayInfoText("Found 0 matching document(s)");
+
+                        if (engine.speller != null) {
+                            SpellingOptionsDialog dialog = new SpellingOptionsDialog(50);
+                            long spellStartTime = System.currentTimeMillis();
+                            String[] corrections = engine.speller.check(query, 10);
+                            elapsedTime = System.currentTimeMillis() - spellStartTime;
+                            System.err.println("It took " + elapsedTime / 1000.0 + "s to check spelling");
+                            if (corrections != null && corrections.length > 0) {
+                                String choice = dialog.show(corrections, corrections[0]);
+                                if (choice != null) {
+                                    queryWindow.setText(choice);
+                                    queryWindow.grabFocus();
+                                    this.actionPerformed(e);
+                                }
                             }
                         }
                     }
-                }
+                });
             }
         };
 
@@ -344,13 +366,70 @@ public class SearchGUI extends JFrame
      */
     void displayResults(int maxResultsToDisplay, double elapsedTime)
     {
-        displayInfoText(String.format("Found %d matching document(s) in %.3f seconds", results.size(), elapsedTime));
-        box = new JCheckBox[maxResultsToDisplay];
+        if (results.size() < maxResultsToDisplay && (results.size() < results.getTotalHits() || !results.isTotalHitsExact())) {
+            BiFunction<Searcher, Integer, SearchResult> search = searchAgain;
+            runSearch(searcher -> search.apply(searcher, maxResultsToDisplay), more -> {
+                // the index may have changed since, keep what was found then if all of it is gone
+                if (more != null) {
+                    results = more;
+                }
+                showResults(maxResultsToDisplay, elapsedTime);
+            });
+        } else {
+            showResults(maxResultsToDisplay, elapsedTime);
+        }
+    }
+
+    /**
+     * Runs <code>search</code> on the view of the index published last, on a
+     * background thread, and then <code>done</code> with its results on the
+     * event dispatch thread. New searches wait while the index is changed in
+     * place (see <code>SearcherManager.exclusive</code>), which must not
+     * freeze the window. If another search was started meanwhile, the
+     * results are dropped.
+     */
+    private void runSearch(Function<Searcher, SearchResult> search, Consumer<SearchResult> done)
+    {
+        int searchNr = ++searchesStarted;
+        new SwingWorker<SearchResult, Void>()
+        {
+            protected SearchResult doInBackground()
+            {
+                IndexView view = engine.searchers.acquire();
+                try {
+                    return search.apply(view.getSearcher());
+                } finally {
+                    view.release();
+                }
+            }
+
+            protected void done()
+            {
+                if (searchNr != searchesStarted) {
+                    return;
+                }
+                try {
+                    done.accept(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    displayInfoText("The search failed: " + e.getCause());
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Displays the results already found in the results window.
+     */
+    private void showResults(int maxResultsToDisplay, double elapsedTime)
+    {
+        displayInfoText(String.format("Found %s%d matching document(s) in %.3f seconds",
+                results.isTotalHitsExact() ? "" : "at least ", results.getTotalHits(), elapsedTime));
+        box = new JCheckBox[Math.min(maxResultsToDisplay, Math.max(results.size(), MAX_RESULTS))];
         int i;
         for (i = 0; i < results.size() && i < maxResultsToDisplay; i++) {
-            String description = i + ". " + displayableFileName(engine.index.docNames.get(results.get(i).docID));
+            String description = i + ". " + displayableFileName(engine.index.docNames.get(results.getDocID(i)));
             if (queryType == QueryType.RANKED_QUERY) {
-                description += "   " + String.format("%.5f", results.get(i).score);
+                description += "   " + String.format("%.5f", results.getScore(i));
             }
             box[i] = new JCheckBox();
             box[i].setSelected(false);
@@ -422,7 +501,7 @@ public class SearchGUI extends JFrame
             resultWindow.add(result);
         }
         // If there were many results, give the user an option to see all of them.
-        if (i < results.size()) {
+        if (i < results.getTotalHits() || (i == maxResultsToDisplay && !results.isTotalHitsExact())) {
             JPanel actionButtons = new JPanel();
             actionButtons.setLayout(new BoxLayout(actionButtons, BoxLayout.X_AXIS));
             actionButtons.setAlignmentX(Component.LEFT_ALIGNMENT);
@@ -442,14 +521,14 @@ public class SearchGUI extends JFrame
 
             actionButtons.add(Box.createRigidArea(new Dimension(5, 0)));
 
-            JButton displayAllBut = new JButton("Display all " + results.size() + " results");
+            JButton displayAllBut = new JButton(results.isTotalHitsExact() ? "Display all " + results.getTotalHits() + " results" : "Display all results");
             displayAllBut.setFont(resultFont);
             actionButtons.add(displayAllBut);
             Action displayAll = new AbstractAction()
             {
                 public void actionPerformed(ActionEvent e)
                 {
-                    displayResults(results.size(), elapsedTime);
+                    displayResults(results.isTotalHitsExact() ? results.getTotalHits() : Integer.MAX_VALUE, elapsedTime);
                 }
             };
             displayAllBut.addActionListener(displayAll);
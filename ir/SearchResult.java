@@ -0,0 +1,130 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+/**
+ * One page of the documents found by a query, in the order they should be
+ * shown, with their scores. A SearchResult never changes once it is built.
+ */
+public final class SearchResult
+{
+    /**
+     * The documents of the page, best first.
+     */
+    private final int[] docIDs;
+
+    /**
+     * The score of each document, or null if the query was not ranked.
+     */
+    private final double[] scores;
+
+    /**
+     * The rank of the first document of the page among all matching documents.
+     */
+    private final int offset;
+
+    /**
+     * The number of documents matching the query, on this page or not.
+     */
+    private final int totalHits;
+
+    /**
+     * False if <code>totalHits</code> is only a lower bound.
+     */
+    private final boolean totalHitsExact;
+
+    SearchResult(int[] docIDs, double[] scores, int offset, int totalHits, boolean totalHitsExact)
+    {
+        this.docIDs = docIDs;
+        this.scores = scores;
+        this.offset = offset;
+        this.totalHits = totalHits;
+        this.totalHitsExact = totalHitsExact;
+    }
+
+    /**
+     * Builds an unranked result holding all the documents of a postings list, in docID order.
+     */
+    public static SearchResult of(PostingsList postings)
+    {
+        return of(postings, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Builds an unranked result holding at most <code>k</code> documents of a
+     * postings list, in docID order, starting with the one at <code>offset</code>.
+     */
+    public static SearchResult of(PostingsList postings, int offset, int k)
+    {
+        int n = (int) Math.max(Math.min((long) offset + k, postings.size()) - offset, 0);
+        int[] docIDs = new int[n];
+        PostingsIterator it = postings.iterator();
+        for (int i = -offset; i < n && it.nextDoc() != PostingsIterator.NO_MORE_DOCS; i++) {
+            if (i >= 0) {
+                docIDs[i] = it.docID();
+            }
+        }
+        return new SearchResult(docIDs, null, offset, postings.size(), true);
+    }
+
+    /**
+     * Number of documents on this page.
+     */
+    public int size()
+    {
+        return docIDs.length;
+    }
+
+    /**
+     * Number of documents matching the query, including those not on this page.
+     * When ranked retrieval skipped documents that could not reach the page this
+     * is only a lower bound, see <code>isTotalHitsExact()</code>.
+     */
+    public int getTotalHits()
+    {
+        return totalHits;
+    }
+
+    /**
+     * Returns false if <code>getTotalHits()</code> is only a lower bound.
+     */
+    public boolean isTotalHitsExact()
+    {
+        return totalHitsExact;
+    }
+
+    /**
+     * The rank of the first document of this page.
+     */
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * Returns the docID of the ith document of the page.
+     */
+    public int getDocID(int i)
+    {
+        return docIDs[i];
+    }
+
+    /**
+     * Returns the score of the ith document of the page, or 0 if the query was not ranked.
+     */
+    public double getScore(int i)
+    {
+        return scores == null ? 0 : scores[i];
+    }
+
+    /**
+     * Returns true if document a should be ranked before document b.
+     */
+    static boolean before(double scoreA, int docA, double scoreB, int docB)
+    {
+        return scoreA > scoreB || (scoreA == scoreB && docA < docB);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+/**
+ * The methods a Searcher needs of an index: looking the terms up, and which
+ * documents to leave out. An Index is searchable, and so is an IndexView,
+ * which is read-only and takes no tokens.
+ */
+public interface SearchableIndex
+{
+    /**
+     * Returns the postings for a given term.
+     */
+    PostingsList getPostings(String token);
+
+    /**
+     * Returns true if the document has been deleted, but may still be in
+     * some postings lists. Searches must leave it out.
+     */
+    default boolean isDeleted(int docID)
+    {
+        return false;
+    }
+
+    /**
+     * Returns the number of documents in the index
+     */
+    int getNrOfDocuments();
+
+    /**
+     * Returns what the tf-idf score of a document is divided by: its number
+     * of words, or the Euclidean length of its tf-idf vector. A document
+     * without a Euclidean length, such as one made only of terms found in
+     * every document, is divided by its number of words.
+     */
+    default double getDocNorm(int docID, NormalizationType normType)
+    {
+        if (normType == NormalizationType.EUCLIDEAN) {
+            Double norm = Index.docNorms.get(docID);
+            if (norm != null && norm > 0) {
+                return norm;
+            }
+        }
+        return Index.docLengths.get(docID);
+    }
+}
@@ -14,7 +14,6 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
-import java.util.function.BiFunction;
 
 /**
  * Searches an index for results of a query.
@@ -23,7 +22,7 @@ public class Searcher {
     /**
      * The index to be searched by this Searcher.
      */
-    final Index index;
+    final SearchableIndex index;
 
     /**
      * The k-gram index to be searched by this Searcher
@@ -33,19 +32,50 @@ public class Searcher {
     /**
      * Constructor
      */
-    public Searcher(Index index, KGramIndex kgIndex) {
+    public Searcher(SearchableIndex index, KGramIndex kgIndex) {
         this.index = index;
         this.kgIndex = kgIndex;
     }
+
+    /**
+     * A searcher of a newer view of the index, which keeps the page ranks
+     * <code>previous</code> read already, and looks up those of the docs
+     * added since in the same table.
+     */
+    public Searcher(SearchableIndex index, KGramIndex kgIndex, Searcher previous) {
+        this(index, kgIndex);
+        if (previous != null) {
+            synchronized (previous) {
+                pageRankTable = previous.pageRankTable;
+                maxPageRank = previous.maxPageRank;
+                if (previous.pageRanks != null) {
+                    pageRanks = extendPageRanks(previous.pageRanks);
+                }
+            }
+        }
+    }
     // for 2.5.2
     double w = 0.005;
 
     /**
      * Searches the index for postings matching the query.
      *
-     * @return A postings list representing the result of the query.
+     * @return All the documents matching the query, or null if none of the query terms is in the index.
      */
-    public PostingsList search(Query query, QueryType queryType, RankingType rankingType, NormalizationType normType) {
+    public SearchResult search(Query query, QueryType queryType, RankingType rankingType, NormalizationType normType) {
+        return search(query, queryType, rankingType, normType, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Searches the index for postings matching the query, and returns only the
+     * <code>k</code> documents ranked right after the first <code>offset</code> ones.
+     * Ranked queries keep just the best <code>offset + k</code> documents while
+     * scoring instead of sorting every match.
+     *
+     * @return One page of the documents matching the query, or null if none of the query terms is in the index.
+     *         The total number of matches is in <code>getTotalHits()</code>.
+     */
+    public SearchResult search(Query query, QueryType queryType, RankingType rankingType, NormalizationType normType, int offset, int k) {
 
         // 3.3 so that we get the k-gram from search engine
         /* each query term is converted into its corresponding k-grams
@@ -65,32 +95,29 @@ public class Searcher {
         if (postings.isEmpty())
             return null;
 
-        PostingsList result = null;
+        SearchResult result = null;
 
         switch (queryType) {
             case INTERSECTION_QUERY: { // assignment 1
-                result = handleQuery(postings, this::intersect);
+                result = SearchResult.of(intersect(postings), offset, k);
                 break;
             }
             case PHRASE_QUERY: { // assignment 1
-                result = handleQuery(postings, this::positionalIntersect);
+                result = SearchResult.of(positionalIntersect(postings), offset, k);
                 break;
             }
             case RANKED_QUERY: { // assignment 2
-                String filePath = "PagerankScore.txt";
-                readPagerank(filePath);
-
                 switch (rankingType) {
                     case TF_IDF: { // 2.1 and 2.2 and 3.1
-                        result = rankedTfIdf(query.queryTerms);
+                        result = rankedWand(query.queryTerms, new TopKCollector(offset, k), normType, false);
                         break;
                     }
                     case PAGERANK: { //2.5
-                        result = rankedPageRank(query.queryTerms);
+                        result = rankedPageRank(query.queryTerms, new TopKCollector(offset, k));
                         break;
                     }
                     case COMBINATION: { //2.5 , 3.1
-                        result = rankedCombo(query.queryTerms);
+                        result = rankedWand(query.queryTerms, new TopKCollector(offset, k), normType, true);
                         break;
                     }
                 }
@@ -101,177 +128,320 @@ public class Searcher {
 
     /* --------------------------------------------- */
     // For assignment 1
-    public PostingsList handleQuery(
-            List<PostingsList> postings,
-            BiFunction<PostingsList, PostingsList, PostingsList> searchFunction
-    ) {
-        PostingsList intersection = postings.get(0);
-
-        for (int i = 1; i < postings.size(); i++) {
-            intersection = searchFunction.apply(intersection, postings.get(i));
-        }
-        return intersection;
-    }
 
-    public PostingsList intersect(PostingsList p1, PostingsList p2) {
+    /**
+     * Intersects all the postings lists in one pass. The lists are ordered by
+     * document frequency, the rarest one proposes candidate documents and the
+     * others are advanced (by galloping) to each candidate. A candidate found in
+     * every list goes straight into the result.
+     */
+    public PostingsList intersect(List<PostingsList> postings) {
         final PostingsList answer = new PostingsList();
 
-        int i = 0, j = 0;
+        final PostingsIterator[] byCost = iteratorsByCost(iterators(postings));
 
-        while (i < p1.size() && j < p2.size()) {
-            final PostingsEntry e1 = p1.get(i);
-            final int docId2 = p2.get(j).docID;
-
-            if (e1.docID == docId2) {
-                answer.add(e1);
-                i++;
-                j++;
-            } else if (e1.docID < docId2) {
-                i++;
-            } else {
-                j++;
+        int docID = nextCommonDoc(byCost, byCost[0].nextDoc());
+        while (docID != PostingsIterator.NO_MORE_DOCS) {
+            // a deleted doc can still be in the postings
+            if (!index.isDeleted(docID)) {
+                answer.add(docID);
             }
+            docID = nextCommonDoc(byCost, byCost[0].nextDoc());
         }
         return answer;
     }
 
-    public PostingsList positionalIntersect(PostingsList postingsList1, PostingsList postingsList2) {
+    /**
+     * Finds the documents where the terms occur next to each other, in query
+     * order. Candidate documents come from the same intersection as above; in
+     * each of them the position lists of all terms are merged in one pass, with
+     * the positions of the ith term shifted back by i, so that a phrase shows
+     * up as the same shifted position in every list. The result holds the
+     * start position of every occurrence of the phrase.
+     */
+    public PostingsList positionalIntersect(List<PostingsList> postings) {
         final PostingsList answer = new PostingsList();
 
-        final int p1Size = postingsList1.size();
-        final int p2Size = postingsList2.size();
+        final PostingsIterator[] its = iterators(postings);
+        final PostingsIterator[] byCost = iteratorsByCost(its);
+        final int n = its.length;
 
-        int p1Index = 0, p2Index = 0;
+        // Shifted current position of each term, and how many positions are left to read
+        final int[] current = new int[n];
+        final int[] left = new int[n];
 
-        while (p1Index < p1Size && p2Index < p2Size) {
-            // Entry from each list
-            final PostingsEntry entry1 = postingsList1.get(p1Index);
-            final PostingsEntry entry2 = postingsList2.get(p2Index);
-
-            if (entry1.docID < entry2.docID) {
-                p1Index++;
-                continue;
-            } else if (entry1.docID > entry2.docID) {
-                p2Index++;
+        int docID = nextCommonDoc(byCost, byCost[0].nextDoc());
+        while (docID != PostingsIterator.NO_MORE_DOCS) {
+            if (index.isDeleted(docID)) {
+                docID = nextCommonDoc(byCost, byCost[0].nextDoc());
                 continue;
             }
-
-            final List<Integer> l = new ArrayList<>();
-
-            // Positions of each entry
-            final TreeSet<Integer> entry1Positions = entry1.positions;
-            final TreeSet<Integer> entry2Positions = entry2.positions;
-
-            for (int pos1 : entry1Positions) {
-                for (int pos2 : entry2Positions) {
-                    if (pos2 - pos1 == 1) {
-                        l.add(pos2);
-                        break;
-                    } else if (pos2 > pos1) {
-                        break;
+            int target = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                left[i] = its[i].tf() - 1;
+                current[i] = its[i].nextPosition() - i;
+                target = Math.max(target, current[i]);
+            }
+            positions:
+            while (true) {
+                for (int i = 0; i < n; i++) {
+                    while (current[i] < target) {
+                        if (left[i] == 0) {
+                            break positions;
+                        }
+                        left[i]--;
+                        current[i] = its[i].nextPosition() - i;
+                    }
+                    if (current[i] > target) {
+                        target = current[i];
+                        continue positions;
                     }
                 }
-                while (!l.isEmpty() && Math.abs(l.get(0) - pos1) != 1) {
-                    l.remove(0);
-                }
-                if (!l.isEmpty()) {
-                    answer.add(new PostingsEntry(entry1.docID, l));
-                    l.clear();
-                }
+                // Every term is at its place in a phrase starting at target
+                answer.add(docID, target);
+                target++;
             }
-            p1Index++;
-            p2Index++;
+            docID = nextCommonDoc(byCost, byCost[0].nextDoc());
         }
         return answer;
     }
 
+    /**
+     * Returns the first document, from <code>candidate</code> on, that is in all the
+     * postings. <code>byCost[0]</code> must be positioned on <code>candidate</code>.
+     * On a miss, the first iterator jumps ahead to the docID that the other one landed on.
+     */
+    private int nextCommonDoc(PostingsIterator[] byCost, int candidate) {
+        candidates:
+        while (candidate != PostingsIterator.NO_MORE_DOCS) {
+            for (int i = 1; i < byCost.length; i++) {
+                final int docID = byCost[i].advance(candidate);
+                if (docID != candidate) {
+                    candidate = byCost[0].advance(docID);
+                    continue candidates;
+                }
+            }
+            return candidate;
+        }
+        return PostingsIterator.NO_MORE_DOCS;
+    }
+
+    /**
+     * Returns one fresh iterator per postings list, in the same order.
+     */
+    private PostingsIterator[] iterators(List<PostingsList> postings) {
+        final PostingsIterator[] its = new PostingsIterator[postings.size()];
+        for (int i = 0; i < its.length; i++) {
+            its[i] = postings.get(i).iterator();
+        }
+        return its;
+    }
+
+    /**
+     * Returns the iterators ordered by increasing document frequency.
+     */
+    private PostingsIterator[] iteratorsByCost(PostingsIterator[] its) {
+        final PostingsIterator[] byCost = its.clone();
+        Arrays.sort(byCost, Comparator.comparingInt(PostingsIterator::size));
+        return byCost;
+    }
+
     /* --------------------------------------------- */
 
     // 2.2 and 2.1 and 2.5.2 tf_idf (everything between the lines)
     // changed for 3.1
+    // Documents are scored one at a time (all the query terms of a doc at once)
+    // with Block-Max WAND pruning: every term has an upper bound of what it can
+    // add to a score, and when the bounds of the terms of a doc can't beat the
+    // worst doc kept by the TopKCollector the doc is skipped without being scored.
+    // The postings also have a bound per block of 128 docs, which is much lower
+    // than the bound of the whole list for common terms, so whole blocks where
+    // no doc can make it are jumped over as well.
+    // Nothing in the index is written to, so queries can run in parallel.
+
+    // The bounds are inflated a tiny bit so that rounding never prunes a doc
+    // that would have made it into the top.
+    private static final double BOUND_SLACK = 1 + 1e-9;
+
+    // combine == false: tf-idf / doc norm (TF_IDF)
+    // combine == true: (1 - w) * page rank + w * tf-idf / doc norm (COMBINATION)
+    // where the doc norm is the number of words or the euclidean length, depending on normType
+    private SearchResult rankedWand(List<Query.QueryTerm> queryTerms, TopKCollector topDocs, NormalizationType normType, boolean combine) {
+        double[] pageRanks = combine ? getPageRanks() : null;
+        // the page rank can add at most this much to a score
+        double pageRankBound = combine ? (1 - w) * maxPageRank : 0;
+
+        // one cursor per query term that is in the index, in query order
+        List<Query.QueryTerm> terms = new ArrayList<>();
+        List<PostingsList> postings = new ArrayList<>();
+        for (Query.QueryTerm queryTerm : queryTerms) {
+            PostingsList postingsList = index.getPostings(queryTerm.term);
+            if (postingsList != null) {
+                terms.add(queryTerm);
+                postings.add(postingsList);
+            }
+        }
+        int n = terms.size();
+        PostingsIterator[] its = iterators(postings);
+        double[] idfs = new double[n];
+        double[] weights = new double[n];
+        // a bound of tf / doc length times the scale is a bound of what the term adds to a score
+        double[] scales = new double[n];
+        double[] bounds = new double[n];
+        // the block of each term holding the doc looked at
+        int[] blocks = new int[n];
+        int maxDf = 0;
+        for (int t = 0; t < n; t++) {
+            idfs[t] = getIDF(postings.get(t));
+            weights[t] = terms.get(t).weight;
+            // a term with no positive weight can't raise a score
+            scales[t] = Math.max(idfs[t] * weights[t] * (combine ? w : 1), 0);
+            bounds[t] = scaleBound(postings.get(t).getMaxImpact(normType), scales[t]);
+            maxDf = Math.max(maxDf, postings.get(t).size());
+            its[t].nextDoc();
+        }
 
-    private PostingsList rankedTfIdf(List<Query.QueryTerm> queryTerms) {
+        // the terms ordered by the doc their cursor is on
+        int[] order = new int[n];
+        for (int t = 0; t < n; t++) {
+            order[t] = t;
+        }
 
-        // Get all the searched terms
-        List<String> terms = queryTerms.stream().map(queryTerm -> queryTerm.term).toList();
+        boolean skipped = false;
+        while (true) {
+            sortByDocID(order, its);
+
+            // pivot: the first cursor where the bounds so far could beat the threshold
+            double threshold = topDocs.threshold();
+            double bound = pageRankBound;
+            int pivot = -1;
+            for (int i = 0; i < n && its[order[i]].docID() != PostingsIterator.NO_MORE_DOCS; i++) {
+                bound += bounds[order[i]];
+                if (bound * BOUND_SLACK > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                // no doc that is left can make it into the top
+                skipped |= n > 0 && its[order[0]].docID() != PostingsIterator.NO_MORE_DOCS;
+                break;
+            }
 
-        // map: <doc, score>
-        // Create empty dictionary to hold document scores
-        Map<PostingsEntry, Double> docScores = new HashMap<>();
+            int pivotDoc = its[order[pivot]].docID();
+            // the cursors after the pivot that are on the pivot doc count too
+            while (pivot + 1 < n && its[order[pivot + 1]].docID() == pivotDoc) {
+                pivot++;
+            }
 
-        // Loop through all search query terms, for each term,
-        // changed the following 2 lines for 3.1
-        // used to be:
-        // for ( term : terms ) {
-        for (Query.QueryTerm queryTerm : queryTerms) {
-            String term = queryTerm.term;
-            // Retrieve documents containing the search term
-            // "allDocuments" is a list that has all the documents that have that term
-            PostingsList allDocuments = index.getPostings(term);
-
-            // Loop through all retrieved documents
-            // for each document in this list (of documents that have the term)
-            for (PostingsEntry document : allDocuments.getList()) {
-
-                // Calculate the score for the document
-                // 3.1: multiply by queryTerm.weight
-                double score = calculateTfIdfScore(document, term) * queryTerm.weight;
-
-                // if the document already exists in the list of scores, add the SCORE to it only
-                if (docScores.containsKey(document)) {
-                    docScores.put(document, docScores.get(document) + score);
+            // a tighter bound from the blocks holding the pivot doc, which holds
+            // for every doc until the first of these blocks ends
+            double blockBound = pageRankBound;
+            int next = pivot + 1 < n ? its[order[pivot + 1]].docID() : PostingsIterator.NO_MORE_DOCS;
+            for (int i = 0; i <= pivot; i++) {
+                int t = order[i];
+                PostingsList postingsList = postings.get(t);
+                blocks[t] = postingsList.findBlock(blocks[t], pivotDoc);
+                if (blocks[t] < postingsList.getNrOfBlocks()) {
+                    blockBound += scaleBound(postingsList.getBlockMaxImpact(normType, blocks[t]), scales[t]);
+                    int lastDocID = postingsList.getBlockLastDocID(blocks[t]);
+                    next = Math.min(next, lastDocID == PostingsIterator.NO_MORE_DOCS ? lastDocID : lastDocID + 1);
                 }
-                // otherwise, put the document in the list of score and its score
-                else {
-                    docScores.put(document, score);
+            }
+            if (blockBound * BOUND_SLACK <= threshold) {
+                // no doc before next can make it into the top, jump over them
+                for (int i = 0; i <= pivot; i++) {
+                    if (its[order[i]].docID() < next) {
+                        its[order[i]].advance(next);
+                    }
                 }
+                skipped = true;
+                continue;
             }
-        }
-
-        // a list called results which will be the documents that have the term and ranked
-        PostingsList results = new PostingsList();
 
-        for (String term : terms) {
-
-            // Retrieve documents containing the search term
-            PostingsList allDocuments = index.getPostings(term);
-
-            // for every doc in this list of doc, if it's not in results list, add it
-            for (PostingsEntry document : allDocuments.getList()) {
-                if (!results.fastContains(document)) // 3.1 used fastContains to make it faster
-                    results.add(document);
+            if (its[order[0]].docID() == pivotDoc && index.isDeleted(pivotDoc)) {
+                // a deleted doc can still be in the postings, it is passed over
+                for (int t = 0; t < n; t++) {
+                    if (its[t].docID() == pivotDoc) {
+                        its[t].nextDoc();
+                    }
+                }
+            } else if (its[order[0]].docID() == pivotDoc) {
+                // sum tf * idf in query order, like the terms were added one by one
+                double score = 0;
+                for (int t = 0; t < n; t++) {
+                    if (its[t].docID() == pivotDoc) {
+                        score += getTF(its[t]) * idfs[t] * weights[t];
+                    }
+                }
+                // normalize the tf-idf score
+                score = score / getDocNorm(pivotDoc, normType);
+                if (combine) {
+                    // the doc score is a linear combination of both scores
+                    score = (1 - w) * getPageRank(pageRanks, pivotDoc) + w * score;
+                }
+                topDocs.collect(pivotDoc, score);
+                for (int t = 0; t < n; t++) {
+                    if (its[t].docID() == pivotDoc) {
+                        its[t].nextDoc();
+                    }
+                }
+            } else {
+                // the docs before the pivot doc can't make it, jump over them
+                for (int i = 0; i < pivot; i++) {
+                    if (its[order[i]].docID() < pivotDoc) {
+                        its[order[i]].advance(pivotDoc);
+                    }
+                }
+                skipped = true;
             }
         }
-
-        // for every doc in this list of doc ==> doc Score / doc length
-        for (PostingsEntry document : docScores.keySet()) {
-            document.score = docScores.get(document) / index.docLengths.get(document.docID);
+        if (skipped) {
+            // some docs were never scored, but there are at least as many hits as in the longest list
+            topDocs.setTotalHitsLowerBound(maxDf);
         }
-
-        // sort the docs by score and put them in results list
-        results.sortByScore();
-        return results;
+        return topDocs.toResult();
     }
 
+    // bound * scale, where a term that can't raise a score has no bound at all
+    private static double scaleBound(double bound, double scale) {
+        return scale > 0 ? bound * scale : 0;
+    }
 
-    // tf * idf
-    // later, it will be divided by length of the doc (in rankedTfIdf method)
-    private double calculateTfIdfScore(PostingsEntry document, String term) {
-        double tf = getTF(document, term);
-        double idf = getIDF(term);
-        return tf * idf;
+    // insertion sort of the terms by current docID, the order barely changes between two docs
+    private static void sortByDocID(int[] order, PostingsIterator[] its) {
+        for (int i = 1; i < order.length; i++) {
+            int t = order[i];
+            int docID = its[t].docID();
+            int j = i - 1;
+            while (j >= 0 && its[order[j]].docID() > docID) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = t;
+        }
     }
 
     // calculating the term frequency : number of occurrences of term in doc
     // how many positions that term has in the doc aka tf
-    public double getTF(PostingsEntry document, String term) {
-        return document.positions.size();
+    public double getTF(PostingsIterator postings) {
+        return postings.tf();
+    }
+
+    // what a doc score is divided by: the number of words in the doc, or the
+    // euclidean length of its tf-idf vector (computed by the index)
+    private double getDocNorm(int docID, NormalizationType normType) {
+        return index.getDocNorm(docID, normType);
     }
 
     // calculating Inverse Document Frequency : idf = log(N/df)
-    private double getIDF(String term) {
+    // the index stores it once indexing is done, so it is only computed here if it didn't
+    private double getIDF(PostingsList postings) {
+        if (!Double.isNaN(postings.getIDF())) {
+            return postings.getIDF();
+        }
         double N = index.getNrOfDocuments(); // number of ALL the documents in the corpus
-        double df = index.getPostings(term).size(); // number of documents in the corpus that contain the term
+        double df = postings.size(); // number of documents in the corpus that contain the term
         double idf = Math.log(N / df);
 
         // this print is for task 2.3
@@ -283,11 +453,64 @@ public class Searcher {
     /* --------------------------------------------- */
 
     // 2.5.2 (everything between the lines)
-    // read page rank from file to a hashtable
-    Hashtable<String, Double> pageRankHT = new Hashtable<>(); // <docTitle, pageRankValue>
+    // page rank of every document, indexed by docID. It is read from file the first
+    // time a query needs it and never changes afterwards.
+    private volatile double[] pageRanks = null;
+
+    // the highest page rank of any doc, set before pageRanks
+    private double maxPageRank = 0;
+
+    // the page rank of every doc title in the file, read along with pageRanks
+    private Hashtable<String, Double> pageRankTable = null;
+
+    double[] getPageRanks() {
+        double[] ranks = pageRanks;
+        if (ranks == null) {
+            synchronized (this) {
+                if (pageRanks == null) {
+                    pageRankTable = readPagerank("PagerankScore.txt");
+                    pageRanks = extendPageRanks(new double[0]);
+                }
+                ranks = pageRanks;
+            }
+        }
+        return ranks;
+    }
+
+    // the page ranks in ranks, followed by those of the docs with larger docIDs, looked up
+    // in pageRankTable. A newer view has docs that the searcher of the view before didn't,
+    // and they would have a page rank of 0 otherwise
+    private double[] extendPageRanks(double[] ranks) {
+        int maxDocID = -1;
+        for (int docID : Index.docNames.keySet()) {
+            maxDocID = Math.max(maxDocID, docID);
+        }
+        if (maxDocID < ranks.length) {
+            return ranks;
+        }
+        double[] newRanks = Arrays.copyOf(ranks, maxDocID + 1);
+        for (Map.Entry<Integer, String> doc : Index.docNames.entrySet()) {
+            if (doc.getKey() < ranks.length) {
+                continue;
+            }
+            // the doc title is the file name, whatever the path separator
+            String filename = doc.getValue();
+            filename = filename.substring(Math.max(filename.lastIndexOf("\\"), filename.lastIndexOf("/")) + 1);
+            newRanks[doc.getKey()] = pageRankTable.getOrDefault(filename, 0.0);
+            maxPageRank = Math.max(maxPageRank, newRanks[doc.getKey()]);
+        }
+        return newRanks;
+    }
+
+    // page rank of a document, 0 if it has none
+    private static double getPageRank(double[] pageRanks, int docID) {
+        return docID < pageRanks.length ? pageRanks[docID] : 0;
+    }
 
+    // read page rank from file to a hashtable <docTitle, pageRankValue>
     // Inspired from readDocs()
-    void readPagerank(String filename) {
+    Hashtable<String, Double> readPagerank(String filename) {
+        Hashtable<String, Double> pageRankHT = new Hashtable<>(); // <docTitle, pageRankValue>
         int fileIndex = 0;
         try {
             System.err.print("(readPagerank:) Reading titles file... ");
@@ -319,128 +542,35 @@ public class Searcher {
             System.err.println("(readPagerank:) Error reading file " + filename);
         }
         System.err.println("(readPagerank:) Read " + fileIndex + " number of documents");
+        return pageRankHT;
     }
 
-    private PostingsList rankedPageRank(List<Query.QueryTerm> queryTerms){
+    private SearchResult rankedPageRank(List<Query.QueryTerm> queryTerms, TopKCollector topDocs) {
+        double[] pageRanks = getPageRanks();
 
-        // Get all the searched terms
-        List<String> terms = queryTerms.stream().map(queryTerm -> queryTerm.term).toList();
-
-        // Loop through all search query terms, for each term,
-        for (String term : terms) {
-
-            // Retrieve documents containing the search term
-            // "allDocuments" is a list that has all the documents that have that term
-            PostingsList allDocuments = index.getPostings(term);
-
-            // Loop through all retrieved documents
-            // for each document in this list (of documents that have the term)
-            for (PostingsEntry document : allDocuments.getList()) {
-
-                // get the doc name of each document using doc ID
-                String filename = Index.docNames.get(document.docID);
-                // get the doc title
-                filename = filename.substring(filename.lastIndexOf("\\") + 1);
-                // set the doc.score to the score corresponding to the doc title in HT
-                document.score = pageRankHT.get(filename);
-            }
-        }
-
-        /* a list called results which will be the documents that have the term and ranked */
-        PostingsList results = new PostingsList();
-
-        for (String term : terms) {
-
-            // Retrieve documents containing the search term
-            // "documents" is a list that has all the documents that have that term */
-            PostingsList allDocuments = index.getPostings(term);
-
-            // for every doc in this list of doc, if it's not in results list, add it
-            for (PostingsEntry document : allDocuments.getList()) {
-                if (!results.getList().contains(document))
-                    results.add(document);
-            }
-        }
-        // sort the docs by score and put them in results list
-        results.sortByScore();
-        return results;
-    }
-
-    private PostingsList rankedCombo(List<Query.QueryTerm> queryTerms) {
-
-        // Get all the searched terms
-        List<String> terms = queryTerms.stream().map(queryTerm -> queryTerm.term).toList();
-
-        // map: <doc, score>
-        // Create empty dictionary to hold document scores
-        Map<PostingsEntry, Double> docScores = new HashMap<>();
-
-        // Loop through all search query terms, for each term,
-        // changed the following 2 lines for 3.1
-        // used to be:
-        // for ( term : terms ) {
+        // every doc that has at least one of the terms
+        ScoreAccumulator allDocs = new ScoreAccumulator(index.getNrOfDocuments());
         for (Query.QueryTerm queryTerm : queryTerms) {
-            String term = queryTerm.term;
-
-            // Retrieve documents containing the search term
-            // "documents" is a list that has all the documents that have that term
-            PostingsList allDocuments = index.getPostings(term);
-
-            // Loop through all retrieved documents
-            // for each document in this list (of documents that have the term)
-            for (PostingsEntry document : allDocuments.getList()) {
-
-                // 3.1: multiply by queryTerm.weight
-                double scoreTfIdf = calculateTfIdfScore(document, term) * queryTerm.weight;
-                /// if the document already exists in the list of scores, add the SCORE to it only
-                if (docScores.containsKey(document)) {
-                    docScores.put(document, docScores.get(document) + scoreTfIdf);
-                }
-                else {
-                    ///otherwise, put the document in the list of score and its score
-                    docScores.put(document, scoreTfIdf);
-                }
+            PostingsList allDocuments = index.getPostings(queryTerm.term);
+            if (allDocuments == null) {
+                continue;
             }
-        }
-
-        // a list called results which will be the documents that have the term and ranked
-        PostingsList results = new PostingsList();
-
-        for (String term : terms) {
-
-            // Retrieve documents containing the search term
-            // "allDocuments" is a list that has all the documents that have that term
-            PostingsList allDocuments = index.getPostings(term);
-
-            // for every doc in this list of doc, if it's not in results list, add it
-            for (PostingsEntry document : allDocuments.getList()) {
-                if (!results.fastContains(document))// 3.1 used fastContains to make it faster
-                    results.add(document);
+            PostingsIterator it = allDocuments.iterator();
+            for (int docID = it.nextDoc(); docID != PostingsIterator.NO_MORE_DOCS; docID = it.nextDoc()) {
+                if (!index.isDeleted(docID)) {
+                    allDocs.add(docID, 0);
+                }
             }
         }
 
-        // for every doc in this list of doc scores
-        for (PostingsEntry document : docScores.keySet()) {
-
-            // normalize the tf-idf score
-            double scoreTfIdfFinal = docScores.get(document) / index.docLengths.get(document.docID);
-
-            // get the page rank score
-            String filename = Index.docNames.get(document.docID);
-            filename = filename.substring(filename.lastIndexOf("\\") + 1);
-            //double scorePageRank = pageRankHT.get(filename);
-            double scorePageRank = pageRankHT.getOrDefault(filename, 0.0);
-            /*if (pageRankHT.get(filename) == null) {
-                System.out.println(filename);
-            }*/
-
-            // set the doc.score to a linear combination of both scores
-            document.score = (1 - w) * scorePageRank + w * scoreTfIdfFinal;
+        // the score of each doc is its page rank
+        for (int i = 0; i < allDocs.size(); i++) {
+            int docID = allDocs.getDocID(i);
+            topDocs.collect(docID, getPageRank(pageRanks, docID));
         }
-        // sort the docs by score and put them in results list
-        results.sortByScore();
-        return results;
+        return topDocs.toResult();
     }
+
     /* --------------------------------------------- */
     public List<PostingsList> getPostings(List<Query.QueryTerm> queryTerms) {
         final List<PostingsList> postings = new ArrayList<>();
@@ -0,0 +1,211 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Hands out the current IndexView to searches, and lets the indexer replace
+ * it with a newer one.
+ *
+ * A search acquires the current view, searches it and releases it, without
+ * any lock: searches run in parallel with each other and with the indexer,
+ * which publishes a new view atomically once it has complete segments to
+ * show. The searches still running on an older view finish on it.
+ *
+ * Only an index that is changed in place, such as a PersistentHashedIndex
+ * being merged into, makes new searches wait: see <code>exclusive</code>.
+ *
+ * Views are published by one thread at a time, the one indexing.
+ */
+public class SearcherManager
+{
+    /**
+     * Something to run once every view published before some point has been
+     * released for the last time.
+     */
+    private static class Pending
+    {
+        final Set<IndexView> views;
+        final Runnable action;
+
+        Pending(Set<IndexView> views, Runnable action)
+        {
+            this.views = views;
+            this.action = action;
+        }
+    }
+
+    private final KGramIndex kgIndex;
+
+    private final AtomicReference<IndexView> current;
+
+    /**
+     * The views published and not yet released for the last time.
+     */
+    private final Set<IndexView> open = new HashSet<>();
+
+    private final List<Pending> pending = new ArrayList<>();
+
+    /**
+     * True while <code>exclusive</code> waits for the searches to finish.
+     */
+    private volatile boolean paused = false;
+
+
+    /**
+     * @param view    The first view to search.
+     * @param kgIndex The k-gram index the searchers use.
+     */
+    public SearcherManager(IndexView view, KGramIndex kgIndex)
+    {
+        this.kgIndex = kgIndex;
+        prepare(view, null);
+        open.add(view);
+        current = new AtomicReference<>(view);
+    }
+
+    /**
+     * Returns the current view, which must be released once the search is done.
+     */
+    public IndexView acquire()
+    {
+        while (true) {
+            IndexView view = current.get();
+            if (view.tryAcquire()) {
+                if (!paused) {
+                    return view;
+                }
+                // searches overlapping each other would keep the view held, and
+                // exclusive() waiting, so a new search waits for it instead
+                view.release();
+            }
+            // the view was replaced in between, or is being changed in place
+            synchronized (this) {
+                boolean interrupted = false;
+                while (paused) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes <code>view</code> the view new searches get.
+     */
+    public void publish(IndexView view)
+    {
+        publish(view, null);
+    }
+
+    /**
+     * Makes <code>view</code> the view new searches get, and runs
+     * <code>whenReleased</code> once every older view has been released,
+     * such as to drop what only the older views use.
+     */
+    public void publish(IndexView view, Runnable whenReleased)
+    {
+        IndexView old = current.get();
+        prepare(view, old);
+        synchronized (this) {
+            if (whenReleased != null) {
+                // every older view is open until then, the current one at least
+                pending.add(new Pending(new HashSet<>(open), whenReleased));
+            }
+            open.add(view);
+        }
+        current.set(view);
+        old.release();
+    }
+
+    /**
+     * Runs <code>change</code> once no search holds any view, and publishes the
+     * view it returns. New searches wait until then. This is for indexes that
+     * are changed in place, which the views published so far still use.
+     *
+     * If the change fails, or the wait is interrupted, the view published
+     * before is taken back and searches go on with it.
+     */
+    public void exclusive(Supplier<IndexView> change) throws InterruptedException
+    {
+        IndexView old;
+        synchronized (this) {
+            paused = true;
+            old = current.get();
+        }
+        IndexView view = null;
+        try {
+            old.release();
+            synchronized (this) {
+                while (!open.isEmpty()) {
+                    wait();
+                }
+            }
+            view = change.get();
+        } finally {
+            synchronized (this) {
+                if (view == null) {
+                    // it is taken back under the lock, so closed() leaves it open
+                    old.reopen();
+                    view = old;
+                } else {
+                    prepare(view, old);
+                }
+                open.add(view);
+                current.set(view);
+                paused = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Gives a view its searcher, which keeps the page ranks the searcher of
+     * the previous view read, and makes it tell when it is closed.
+     */
+    private void prepare(IndexView view, IndexView previous)
+    {
+        view.setSearcher(new Searcher(view, kgIndex, previous == null ? null : previous.getSearcher()));
+        view.setOnClose(() -> closed(view));
+    }
+
+    private void closed(IndexView view)
+    {
+        List<Runnable> ready = new ArrayList<>();
+        synchronized (this) {
+            if (view.isHeld()) {
+                // taken back by exclusive() since it was released
+                return;
+            }
+            open.remove(view);
+            for (Iterator<Pending> it = pending.iterator(); it.hasNext(); ) {
+                Pending p = it.next();
+                p.views.remove(view);
+                if (p.views.isEmpty()) {
+                    ready.add(p.action);
+                    it.remove();
+                }
+            }
+            notifyAll();
+        }
+        for (Runnable action : ready) {
+            action.run();
+        }
+    }
+}
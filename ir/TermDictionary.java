@@ -0,0 +1,288 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+/**
+ * Maps terms to dense integer identifiers 0, 1, 2, ... in the order the
+ * terms are first added.
+ *
+ * The characters of all terms are stored one after the other in a single
+ * array, and lookups go through an open-addressing hash table (linear
+ * probing) holding term identifiers, so a term costs a few array cells
+ * instead of a String and a HashMap node.
+ */
+public class TermDictionary
+{
+    /**
+     * The characters of all terms, term after term.
+     */
+    private char[] chars = new char[1024];
+
+    /**
+     * Number of cells of <code>chars</code> in use.
+     */
+    private int nrOfChars = 0;
+
+    /**
+     * Where each term starts in <code>chars</code>. Term i ends where term i+1 starts.
+     */
+    private int[] starts = new int[257];
+
+    /**
+     * The hash code of each term, kept to avoid recomputing it when rehashing.
+     */
+    private int[] hashes = new int[256];
+
+    /**
+     * The hash table. A cell holds a term identifier plus one, or 0 if empty.
+     * The length is always a power of two.
+     */
+    private int[] table = new int[512];
+
+    /**
+     * Number of terms in the dictionary.
+     */
+    private int size = 0;
+
+    public TermDictionary()
+    {
+    }
+
+    /**
+     * Makes a copy of <code>other</code>, which can change apart from it.
+     */
+    public TermDictionary(TermDictionary other)
+    {
+        chars = other.chars.clone();
+        nrOfChars = other.nrOfChars;
+        starts = other.starts.clone();
+        hashes = other.hashes.clone();
+        table = other.table.clone();
+        size = other.size;
+    }
+
+    /**
+     * Number of terms in the dictionary.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns about how many bytes of heap the dictionary takes.
+     */
+    public long heapBytes()
+    {
+        return 64 + 16 + 2L * chars.length + 3 * 16 + 4L * (starts.length + hashes.length + table.length);
+    }
+
+    /**
+     * Returns the identifier of <code>term</code>, or -1 if it is not in the dictionary.
+     */
+    public int lookup(String term)
+    {
+        int h = mix(term.hashCode());
+        int mask = table.length - 1;
+        for (int slot = h & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (hashes[id] == h && equals(id, term)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the identifier of the term <code>buf[start..start+length)</code>,
+     * or -1 if it is not in the dictionary.
+     */
+    public int lookup(char[] buf, int start, int length)
+    {
+        int h = mix(hash(buf, start, length));
+        int mask = table.length - 1;
+        for (int slot = h & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (hashes[id] == h && equals(id, buf, start, length)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the identifier of term <code>id</code> of <code>other</code>,
+     * or -1 if it is not in this dictionary.
+     */
+    public int lookup(TermDictionary other, int id)
+    {
+        return lookup(other.chars, other.starts[id], other.getTermLength(id));
+    }
+
+    /**
+     * Returns the identifier of <code>term</code>, adding the term if needed.
+     */
+    public int add(String term)
+    {
+        int h = mix(term.hashCode());
+        int mask = table.length - 1;
+        int slot = h & mask;
+        for (; table[slot] != 0; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (hashes[id] == h && equals(id, term)) {
+                return id;
+            }
+        }
+        int length = term.length();
+        ensureCharCapacity(length);
+        term.getChars(0, length, chars, nrOfChars);
+        return addTerm(slot, h, length);
+    }
+
+    /**
+     * Returns the identifier of the term <code>buf[start..start+length)</code>,
+     * adding the term if needed.
+     */
+    public int add(char[] buf, int start, int length)
+    {
+        int h = mix(hash(buf, start, length));
+        int mask = table.length - 1;
+        int slot = h & mask;
+        for (; table[slot] != 0; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (hashes[id] == h && equals(id, buf, start, length)) {
+                return id;
+            }
+        }
+        ensureCharCapacity(length);
+        System.arraycopy(buf, start, chars, nrOfChars, length);
+        return addTerm(slot, h, length);
+    }
+
+    /**
+     * Returns the identifier of term <code>id</code> of <code>other</code>,
+     * adding the term if needed.
+     */
+    public int add(TermDictionary other, int id)
+    {
+        return add(other.chars, other.starts[id], other.getTermLength(id));
+    }
+
+    /**
+     * Returns the term with identifier <code>id</code>.
+     */
+    public String getTerm(int id)
+    {
+        return new String(chars, starts[id], starts[id + 1] - starts[id]);
+    }
+
+    /**
+     * Returns the length of the term with identifier <code>id</code>.
+     */
+    public int getTermLength(int id)
+    {
+        return starts[id + 1] - starts[id];
+    }
+
+    /**
+     * Registers the term whose characters were just copied to the end of
+     * <code>chars</code>, in the empty table cell <code>slot</code>.
+     */
+    private int addTerm(int slot, int h, int length)
+    {
+        int id = size++;
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            starts = Arrays.copyOf(starts, size * 2 + 1);
+        }
+        hashes[id] = h;
+        starts[id] = nrOfChars;
+        nrOfChars += length;
+        starts[id + 1] = nrOfChars;
+        table[slot] = id + 1;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Doubles the hash table.
+     */
+    private void rehash()
+    {
+        int[] newTable = new int[table.length * 2];
+        int mask = newTable.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (newTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = id + 1;
+        }
+        table = newTable;
+    }
+
+    private void ensureCharCapacity(int length)
+    {
+        if (nrOfChars + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, nrOfChars + length));
+        }
+    }
+
+    private boolean equals(int id, String term)
+    {
+        int start = starts[id];
+        int length = starts[id + 1] - start;
+        if (length != term.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars[start + i] != term.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean equals(int id, char[] buf, int start, int length)
+    {
+        int termStart = starts[id];
+        if (starts[id + 1] - termStart != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars[termStart + i] != buf[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same hash code as <code>String.hashCode()</code>, computed on a span of characters.
+     */
+    private static int hash(char[] buf, int start, int length)
+    {
+        int h = 0;
+        for (int i = start; i < start + length; i++) {
+            h = 31 * h + buf[i];
+        }
+        return h;
+    }
+
+    /**
+     * Spreads the bits of a String hash code, which is weak in the low bits
+     * that pick the table cell.
+     */
+    private static int mix(int h)
+    {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
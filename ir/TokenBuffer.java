@@ -0,0 +1,91 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+/**
+ * The tokens of a document, kept as the characters of all tokens one after
+ * the other in a single array, and where each token ends. A buffer can be
+ * cleared and filled again for the next document, so once it has grown to
+ * the size of the largest document it allocates nothing more.
+ */
+public class TokenBuffer implements TokenHandler
+{
+    /**
+     * The characters of all tokens, token after token.
+     */
+    private char[] chars = new char[1024];
+
+    /**
+     * Where each token ends in <code>chars</code>. Token i starts where
+     * token i-1 ends.
+     */
+    private int[] ends = new int[256];
+
+    /**
+     * Number of tokens in the buffer.
+     */
+    private int size = 0;
+
+
+    /**
+     * Appends a token.
+     */
+    public void token(char[] buf, int start, int length)
+    {
+        int from = start(size);
+        if (from + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(2 * chars.length, from + length));
+        }
+        if (size == ends.length) {
+            ends = Arrays.copyOf(ends, 2 * ends.length);
+        }
+        System.arraycopy(buf, start, chars, from, length);
+        ends[size++] = from + length;
+    }
+
+    /**
+     * Empties the buffer, keeping its arrays.
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * Number of tokens in the buffer.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * The characters of the tokens; token i is
+     * <code>getChars()[start(i)..start(i)+length(i))</code>.
+     */
+    public char[] getChars()
+    {
+        return chars;
+    }
+
+    /**
+     * Where token i starts in <code>getChars()</code>.
+     */
+    public int start(int i)
+    {
+        return i == 0 ? 0 : ends[i - 1];
+    }
+
+    /**
+     * The length of token i.
+     */
+    public int length(int i)
+    {
+        return ends[i] - start(i);
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+/**
+ * Receives the tokens of a text from <code>Tokenizer.tokenize</code>, one at
+ * a time, as parts of the tokenizer's buffer.
+ */
+public interface TokenHandler
+{
+    /**
+     * Takes the next token, <code>buf[start..start+length)</code>. The buffer
+     * is the tokenizer's own: it must not be changed, and is only valid until
+     * this method returns.
+     */
+    void token(char[] buf, int start, int length);
+}
@@ -7,18 +7,30 @@
 
 package ir;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 
 /**
  * This class performs tokenization of UTF-8 encoded text files.
+ *
+ * The tokens can be read one by one as Strings, with <code>hasMoreTokens</code>
+ * and <code>nextToken</code>, or all handed to a TokenHandler as parts of the
+ * buffer with <code>tokenize</code>, which makes no object per token.
+ *
+ * A Tokenizer can be reused for one text after the other with
+ * <code>reset</code>, which saves making a new buffer for each. A text
+ * that is already in memory as UTF-8 bytes is decoded straight into the
+ * buffer, with a decoder that is reused as well. It
+ * must then be used by one thread at a time, but the TokenizerConfig
+ * it was made with can be shared by any number of Tokenizers.
  */
 public class Tokenizer
 {
@@ -48,10 +60,29 @@ public class Tokenizer
     public static final int BUFFER_LENGTH = 100001;
 
     /**
-     * The reader from where tokens are read.
+     * The reader from where tokens are read, or null if they are
+     * decoded from <code>bytes</code>.
      */
     Reader reader;
 
+    /**
+     * The UTF-8 bytes left to decode, when not reading from a reader.
+     */
+    ByteBuffer bytes;
+
+    /**
+     * Decodes <code>bytes</code> into the buffer. Bytes that are not
+     * UTF-8 become U+FFFD, as they do with an InputStreamReader.
+     */
+    final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Whether the decoder has been flushed at the end of <code>bytes</code>.
+     */
+    boolean decoded = false;
+
     /**
      * Characters are read @code{BUFFER_LENGTH} characters at a
      * time into @code{buf}.
@@ -71,7 +102,17 @@ public class Tokenizer
     /**
      * The next tokens to emit.
      */
-    ArrayList<String> token_queue = new ArrayList<>();
+    ArrayDeque<String> token_queue = new ArrayDeque<>();
+
+    /**
+     * Takes the tokens instead of the queue while <code>tokenize</code> runs.
+     */
+    TokenHandler handler = null;
+
+    /**
+     * Number of tokens handed to the handler.
+     */
+    int nr_of_tokens = 0;
 
     /**
      * @code{true} if we've started reading tokens.
@@ -79,9 +120,27 @@ public class Tokenizer
     boolean started_reading = false;
 
     /**
-     * The patterns matching non-standard words (e-mail addresses, etc.)
+     * How to tokenize, with the patterns matching non-standard words
+     * (e-mail addresses, etc.)
+     */
+    final TokenizerConfig config;
+
+    /**
+     * The part of the buffer holding the current token.
+     */
+    final Span span = new Span();
+
+    /**
+     * Matches the patterns that only match at the start of the current
+     * token, all at once, or null if there are none.
      */
-    ArrayList<Pattern> patterns = null;
+    final Matcher anchored_matcher;
+
+    /**
+     * Matches each of the other patterns on the current token, or null
+     * for the anchored ones.
+     */
+    final Matcher[] matchers;
 
     /**
      * Special characters (with diacritics) can be translated into these characters.
@@ -108,16 +167,69 @@ public class Tokenizer
      */
     public Tokenizer(Reader reader, boolean case_folding, boolean remove_diacritics, boolean remove_punctuation, String pattern_file)
     {
-        this.reader = reader;
-        this.case_folding = case_folding;
-        this.remove_diacritics = remove_diacritics;
-        this.remove_punctuation = remove_punctuation;
-        if (pattern_file != null) {
-            readPatterns(pattern_file);
+        this(new TokenizerConfig(case_folding, remove_diacritics, remove_punctuation, pattern_file));
+        reset(reader);
+    }
+
+
+    /**
+     * Makes a Tokenizer with nothing to read yet, see <code>reset</code>.
+     *
+     * @param config How to tokenize, which may be shared with other Tokenizers.
+     */
+    public Tokenizer(TokenizerConfig config)
+    {
+        this.case_folding = config.case_folding;
+        this.remove_diacritics = config.remove_diacritics;
+        this.remove_punctuation = config.remove_punctuation;
+        this.config = config;
+        this.anchored_matcher = config.anchoredWords == null ? null : config.anchoredWords.matcher(span);
+        this.matchers = new Matcher[config.getNrOfPatterns()];
+        for (int p = 0; p < matchers.length; p++) {
+            if (!config.isAnchored(p)) {
+                matchers[p] = config.patterns.get(p).matcher(span);
+            }
         }
     }
 
 
+    /**
+     * Starts tokenizing the text of <code>reader</code>, forgetting
+     * whatever was left of the previous text.
+     */
+    public void reset(Reader reader)
+    {
+        this.reader = reader;
+        this.bytes = null;
+        restart();
+    }
+
+
+    /**
+     * Starts tokenizing the UTF-8 text in <code>bytes</code>, forgetting
+     * whatever was left of the previous text. The position of
+     * <code>bytes</code> is left as it is.
+     */
+    public void reset(ByteBuffer bytes)
+    {
+        this.reader = null;
+        this.bytes = bytes.duplicate();
+        decoder.reset();
+        decoded = false;
+        restart();
+    }
+
+
+    private void restart()
+    {
+        ptr = 0;
+        token_start = -1;
+        token_queue.clear();
+        started_reading = false;
+        handler = null;
+    }
+
+
     /**
      * Returns true if the character is a punctuation character.
      */
@@ -135,29 +247,6 @@ public class Tokenizer
     }
 
 
-    /**
-     * Read the patterns that match non-standard words
-     */
-    private void readPatterns(String filename)
-    {
-        patterns = new ArrayList<>();
-        String line = null;
-        try {
-            BufferedReader in = new BufferedReader(new FileReader(filename));
-            while ((line = in.readLine()) != null) {
-                line = line.trim();
-                if (!line.startsWith("//") && line.length() > 0) {
-                    patterns.add(Pattern.compile(line));
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Warning: IOException reading the regular expressions from file");
-        } catch (PatternSyntaxException e) {
-            System.err.println("ERROR: Malformed regular expression: " + line);
-        }
-    }
-
-
     /**
      * Normalizes letters by converting to lower-case and possibly
      * removing diacritics. This method is also used for checking
@@ -197,7 +286,7 @@ public class Tokenizer
             readTokens();
             started_reading = true;
         }
-        if (token_queue.size() == 0)
+        if (token_queue.isEmpty())
             return readTokens();
         else
             return true;
@@ -210,17 +299,44 @@ public class Tokenizer
      */
     public String nextToken() throws IOException
     {
-        if (token_queue.size() == 0) {
+        if (token_queue.isEmpty()) {
             if (readTokens())
-                return token_queue.remove(0);
+                return token_queue.poll();
             else
                 return null;
         } else {
-            return token_queue.remove(0);
+            return token_queue.poll();
         }
     }
 
 
+    /**
+     * Hands the rest of the tokens to <code>handler</code>, as parts of the
+     * buffer, in the order <code>nextToken</code> would return them.
+     *
+     * @return The number of tokens handed over.
+     */
+    public int tokenize(TokenHandler handler) throws IOException
+    {
+        nr_of_tokens = 0;
+        // tokens that hasMoreTokens already read
+        for (String token : token_queue) {
+            handler.token(token.toCharArray(), 0, token.length());
+            nr_of_tokens++;
+        }
+        token_queue.clear();
+        this.handler = handler;
+        try {
+            while (readTokens()) {
+                // the tokens went to the handler
+            }
+        } finally {
+            this.handler = null;
+        }
+        return nr_of_tokens;
+    }
+
+
     /**
      * Reads the next token.
      */
@@ -277,78 +393,177 @@ public class Tokenizer
         if (token_start < 0) {
             return false;
         }
-        String s = new String(buf, token_start, ptr - token_start);
-        if (patterns != null) {
-            // Now let's see if the string s matches one of the patterns 
+        if (config.getNrOfPatterns() > 0) {
+            // Now let's see if the token matches one of the patterns
             // for non-standard words
-            for (Pattern p : patterns) {
-                Matcher m = p.matcher(s);
-                if (m.find()) {
-                    // The string contains a non-standard word. First check the prefix 
-                    // before the matching substring, then add the non-standard word  
-                    // to the token queue, then check the remainder of the string.
-                    addStandardTokensToQueue(s.substring(0, m.start()));
-                    token_queue.add(m.group());
-                    token_start += m.end();
-                    addTokensToQueue();
-                    return true;
-                }
+            span.set(token_start, ptr);
+            int p = findNonStandardWord();
+            if (p >= 0) {
+                // The token contains a non-standard word. First check the prefix
+                // before the matching part, then add the non-standard word
+                // to the token queue, then check the remainder of the token.
+                int group = config.isAnchored(p) ? config.getGroup(p) : 0;
+                Matcher m = config.isAnchored(p) ? anchored_matcher : matchers[p];
+                int start = token_start + m.start(group);
+                int end = token_start + m.end(group);
+                addStandardTokensToQueue(token_start, start);
+                emit(start, end - start);
+                token_start = end;
+                addTokensToQueue();
+                return true;
             }
         }
-        // This string contains only standard words
-        return addStandardTokensToQueue(s);
+        // This token contains only standard words
+        return addStandardTokensToQueue(token_start, ptr);
+    }
+
+
+    /**
+     * Finds the non-standard word in the current token that trying the
+     * patterns one at a time, in the order of the file, would find: the
+     * first match of the first pattern that matches anywhere in the token.
+     *
+     * The anchored patterns are tried at once, at the start of the token,
+     * which gives the first of them that matches. Only the other patterns
+     * before it in the file are then searched for.
+     *
+     * @return The pattern, with its matcher on its match, or -1 if no
+     * pattern matches.
+     */
+    private int findNonStandardWord()
+    {
+        int first = matchers.length;
+        if (anchored_matcher != null && anchored_matcher.reset(span).lookingAt()) {
+            first = 0;
+            while (!config.isAnchored(first) || anchored_matcher.start(config.getGroup(first)) < 0) {
+                first++;
+            }
+        }
+        for (int p = 0; p < first; p++) {
+            if (matchers[p] != null && matchers[p].reset(span).find()) {
+                return p;
+            }
+        }
+        return first < matchers.length ? first : -1;
     }
 
 
     /**
      * Adds standard tokens (i.e. tokens not matching any regular
-     * expression) to the queue.
+     * expression) between <code>from</code> and <code>to</code>
+     * in the buffer to the queue.
      */
-    private boolean addStandardTokensToQueue(String s)
+    private boolean addStandardTokensToQueue(int from, int to)
     {
-        // This string s does not match any specific pattern.
+        // This part does not match any specific pattern.
         // Then split it, considering all punctuation symbols
         // to be separators.
         boolean tokens_found = false;
-        StringBuffer smallbuf = new StringBuffer();
-        for (int i = 0; i < s.length(); i++) {
-            if (punctuation(s.charAt(i))) {
-                // The string before the punctuation sign is a token
+        int start = from;
+        for (int i = from; i < to; i++) {
+            if (punctuation(buf[i])) {
+                // The part before the punctuation sign is a token
                 // unless it is empty
-                String t = smallbuf.toString();
-                if (t.length() > 0) {
-                    token_queue.add(t);
-                    smallbuf = new StringBuffer();
+                if (i > start) {
+                    emit(start, i - start);
                     tokens_found = true;
                 }
                 if (!remove_punctuation) {
-                    token_queue.add("" + s.charAt(i));
+                    emit(i, 1);
                     tokens_found = true;
                 }
-            } else {
-                smallbuf.append(s.charAt(i));
+                start = i + 1;
             }
         }
-        // The string after the last punctuation sign is a token
+        // The part after the last punctuation sign is a token
         // unless it is empty
-        String t = smallbuf.toString();
-        if (t.length() > 0) {
-            token_queue.add(t);
+        if (to > start) {
+            emit(start, to - start);
             tokens_found = true;
         }
         return tokens_found;
     }
 
 
+    /**
+     * Hands the token <code>buf[start..start+length)</code> to the handler,
+     * or adds it to the queue if there is none.
+     */
+    private void emit(int start, int length)
+    {
+        if (handler != null) {
+            handler.token(buf, start, length);
+            nr_of_tokens++;
+        } else {
+            token_queue.add(new String(buf, start, length));
+        }
+    }
+
+
+    /**
+     * A part of the buffer, which the matcher reads without copying it.
+     */
+    class Span implements CharSequence
+    {
+        int start;
+        int end;
+
+        void set(int start, int end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        public int length()
+        {
+            return end - start;
+        }
+
+        public char charAt(int index)
+        {
+            return buf[start + index];
+        }
+
+        public CharSequence subSequence(int from, int to)
+        {
+            return new String(buf, start + from, to - from);
+        }
+
+        @Override
+        public String toString()
+        {
+            return new String(buf, start, end - start);
+        }
+    }
+
+
     /**
      * Refills the buffer and adds end_of_file "\0" at the appropriate place.
+     * The buffer may still hold the previous text, so the end is always marked.
      */
     private void refillBuffer(int start) throws IOException
     {
-        int chars_read = reader.read(buf, start, BUFFER_LENGTH - start);
-        if (chars_read >= 0 && chars_read < BUFFER_LENGTH - start) {
-            buf[chars_read] = 0;
+        int chars_read = reader != null ? Math.max(reader.read(buf, start, BUFFER_LENGTH - start), 0) : decode(start);
+        if (chars_read < BUFFER_LENGTH - start) {
+            buf[start + chars_read] = 0;
+        }
+    }
+
+
+    /**
+     * Decodes as much of <code>bytes</code> as fits into the buffer from
+     * <code>start</code> on, and returns the number of characters decoded.
+     */
+    private int decode(int start)
+    {
+        if (decoded) {
+            return 0;
+        }
+        CharBuffer out = CharBuffer.wrap(buf, start, BUFFER_LENGTH - start);
+        if (decoder.decode(bytes, out, true).isUnderflow() && decoder.flush(out).isUnderflow()) {
+            decoded = true;
         }
+        return out.position() - start;
     }
 
 }
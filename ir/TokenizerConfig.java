@@ -0,0 +1,227 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * How a Tokenizer splits and normalizes text: the normalization flags, and
+ * the compiled patterns matching non-standard words.
+ *
+ * The patterns that can only match at the start of a token, those starting
+ * with ^, are also compiled into one alternation, with a named group
+ * <code>p0</code>, <code>p1</code>, ... for each of them after its place in
+ * the file. A token is then tried once, at its start, for all of them. The
+ * other patterns are searched for in the whole token one by one: as a single
+ * alternation they would be tried at every position of every token, where
+ * each of them alone is skipped for tokens that are too short for it, or
+ * found by a fast literal search.
+ *
+ * A configuration never changes once it is made, so one configuration can be
+ * shared by every Tokenizer, on any thread. The patterns of a file are read
+ * and compiled the first time a configuration asks for them, and shared by
+ * every configuration made from the same file afterwards.
+ */
+public class TokenizerConfig
+{
+    /**
+     * The patterns of a file, one by one and combined.
+     */
+    private static class CompiledPatterns
+    {
+        final List<Pattern> patterns;
+        final Pattern anchored;
+
+        /**
+         * Whether each pattern is in <code>anchored</code>.
+         */
+        final boolean[] isAnchored;
+
+        /**
+         * The number of the group of each pattern in <code>anchored</code>.
+         */
+        final int[] groups;
+
+        CompiledPatterns(List<Pattern> patterns)
+        {
+            this.patterns = Collections.unmodifiableList(patterns);
+            isAnchored = new boolean[patterns.size()];
+            groups = new int[patterns.size()];
+            StringBuilder regex = new StringBuilder();
+            int group = 1;
+            for (int i = 0; i < patterns.size(); i++) {
+                isAnchored[i] = isAnchored(patterns.get(i).pattern());
+                if (!isAnchored[i]) {
+                    continue;
+                }
+                if (regex.length() > 0) {
+                    regex.append('|');
+                }
+                regex.append("(?<p").append(i).append('>').append(patterns.get(i).pattern()).append(')');
+                groups[i] = group;
+                group += 1 + patterns.get(i).matcher("").groupCount();
+            }
+            anchored = regex.length() == 0 ? null : Pattern.compile(regex.toString());
+        }
+
+        /**
+         * Returns true if the regular expression can only match at the start
+         * of the input: it starts with ^, and has no | outside of its groups.
+         * When in doubt it returns false, which is always safe.
+         */
+        private static boolean isAnchored(String regex)
+        {
+            if (!regex.startsWith("^")) {
+                return false;
+            }
+            int depth = 0;
+            boolean inClass = false;
+            for (int i = 1; i < regex.length(); i++) {
+                char c = regex.charAt(i);
+                if (c == '\\') {
+                    if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                        return false;
+                    }
+                    i++;
+                } else if (inClass) {
+                    if (c == '[') {
+                        return false;
+                    }
+                    inClass = c != ']';
+                } else if (c == '[') {
+                    if (i + 1 < regex.length() && (regex.charAt(i + 1) == ']' || regex.charAt(i + 1) == '^')) {
+                        return false;
+                    }
+                    inClass = true;
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                } else if (c == '|' && depth == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The compiled patterns, by the name of the file they were read from.
+     */
+    private static final ConcurrentHashMap<String, CompiledPatterns> compiledPatterns = new ConcurrentHashMap<>();
+
+    /**
+     * Whether all letters are turned into lowercase.
+     */
+    public final boolean case_folding;
+
+    /**
+     * Whether all diacritics (accents etc.) are removed.
+     */
+    public final boolean remove_diacritics;
+
+    /**
+     * Whether all punctuation (full stops etc.) is removed.
+     */
+    public final boolean remove_punctuation;
+
+    /**
+     * The patterns matching non-standard words (e-mail addresses, etc.),
+     * or null if there are none.
+     */
+    public final List<Pattern> patterns;
+
+    /**
+     * The patterns that only match at the start of a token as one, or null
+     * if there are none.
+     */
+    public final Pattern anchoredWords;
+
+    private final boolean[] isAnchored;
+
+    private final int[] groups;
+
+
+    /**
+     * @param case_folding       Should be set to <code>true</code> if every character
+     *                           should be translated into its lowercase counterpart.
+     * @param remove_diacritics  Should be set to <code>true</code> if diacritics
+     *                           should be removed (e.g. é will be e).
+     * @param remove_punctuation Should be set to <code>true</code> if punctuation
+     *                           should be removed (useful in some applications).
+     * @param pattern_file       The name of the file containing regular expressions
+     *                           for non-standard words, or null.
+     */
+    public TokenizerConfig(boolean case_folding, boolean remove_diacritics, boolean remove_punctuation, String pattern_file)
+    {
+        this.case_folding = case_folding;
+        this.remove_diacritics = remove_diacritics;
+        this.remove_punctuation = remove_punctuation;
+        CompiledPatterns compiled = pattern_file == null ? null : compiledPatterns.computeIfAbsent(pattern_file, TokenizerConfig::readPatterns);
+        this.patterns = compiled == null ? null : compiled.patterns;
+        this.anchoredWords = compiled == null ? null : compiled.anchored;
+        this.isAnchored = compiled == null ? new boolean[0] : compiled.isAnchored;
+        this.groups = compiled == null ? new int[0] : compiled.groups;
+    }
+
+
+    /**
+     * Returns the number of patterns.
+     */
+    public int getNrOfPatterns()
+    {
+        return groups.length;
+    }
+
+    /**
+     * Returns true if pattern <code>i</code> is in <code>anchoredWords</code>.
+     */
+    public boolean isAnchored(int i)
+    {
+        return isAnchored[i];
+    }
+
+    /**
+     * Returns the number of the group of anchored pattern <code>i</code> in
+     * <code>anchoredWords</code>, the group named <code>p</code><i>i</i>.
+     */
+    public int getGroup(int i)
+    {
+        return groups[i];
+    }
+
+
+    /**
+     * Reads the patterns that match non-standard words. A pattern that does
+     * not compile ends the list.
+     */
+    private static CompiledPatterns readPatterns(String filename)
+    {
+        List<Pattern> patterns = new ArrayList<>();
+        String line = null;
+        try (BufferedReader in = new BufferedReader(new FileReader(filename))) {
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!line.startsWith("//") && line.length() > 0) {
+                    patterns.add(Pattern.compile(line));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: IOException reading the regular expressions from file");
+        } catch (PatternSyntaxException e) {
+            System.err.println("ERROR: Malformed regular expression: " + line);
+        }
+        return new CompiledPatterns(patterns);
+    }
+}
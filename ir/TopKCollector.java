@@ -0,0 +1,189 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the best scoring documents of a ranked query.
+ *
+ * Only the first <code>offset + k</code> documents of the ranking are ever
+ * needed, so they are kept in a bounded min-heap of (docID, score) pairs
+ * whose root is the worst document kept so far. A new document either
+ * loses against the root and is dropped, or replaces it. Collecting n
+ * documents costs O(n log(offset + k)) instead of sorting all of them.
+ */
+public class TopKCollector
+{
+    /**
+     * Number of documents to skip at the top of the ranking.
+     */
+    private final int offset;
+
+    /**
+     * Maximum number of documents kept in the heap (offset + k).
+     */
+    private final int capacity;
+
+    /**
+     * The heap, as two parallel arrays. The root is the worst document kept.
+     */
+    private int[] docIDs;
+    private double[] scores;
+
+    /**
+     * Number of documents in the heap.
+     */
+    private int size = 0;
+
+    /**
+     * Number of documents collected, kept or not.
+     */
+    private int totalHits = 0;
+
+    /**
+     * False if some documents were skipped without being collected.
+     */
+    private boolean totalHitsExact = true;
+
+    /**
+     * @param offset The number of top documents to skip.
+     * @param k      The number of documents to return after the skipped ones.
+     */
+    public TopKCollector(int offset, int k)
+    {
+        if (offset < 0 || k < 0) {
+            throw new IllegalArgumentException("offset and k must not be negative");
+        }
+        this.offset = offset;
+        this.capacity = (int) Math.min((long) offset + k, Integer.MAX_VALUE);
+        int initial = Math.max(Math.min(capacity, 1024), 1);
+        docIDs = new int[initial];
+        scores = new double[initial];
+    }
+
+    /**
+     * Offers a document to the collector.
+     */
+    public void collect(int docID, double score)
+    {
+        totalHits++;
+        if (size < capacity) {
+            if (size == docIDs.length) {
+                int newLength = (int) Math.min((long) size * 2, capacity);
+                docIDs = Arrays.copyOf(docIDs, newLength);
+                scores = Arrays.copyOf(scores, newLength);
+            }
+            docIDs[size] = docID;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (size > 0 && SearchResult.before(score, docID, scores[0], docIDs[0])) {
+            docIDs[0] = docID;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Returns the score a new document has to beat to be kept, or
+     * negative infinity while the heap is not full yet.
+     */
+    public double threshold()
+    {
+        return size < capacity || size == 0 ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * Number of documents collected so far.
+     */
+    public int getTotalHits()
+    {
+        return totalHits;
+    }
+
+    /**
+     * Tells the collector that some matching documents were skipped without
+     * being collected, and that there are at least <code>atLeast</code> of them
+     * in total.
+     */
+    public void setTotalHitsLowerBound(int atLeast)
+    {
+        totalHits = Math.max(totalHits, atLeast);
+        totalHitsExact = false;
+    }
+
+    /**
+     * Empties the heap into a result holding the requested page of the
+     * ranking. The collector must not be used afterwards.
+     */
+    public SearchResult toResult()
+    {
+        int n = Math.max(size - offset, 0);
+        int[] pageDocIDs = new int[n];
+        double[] pageScores = new double[n];
+        // Popping the root gives the documents worst first, so the page is
+        // filled from the back and the skipped top documents come out last.
+        while (size > 0) {
+            int last = --size;
+            if (last >= offset) {
+                pageDocIDs[last - offset] = docIDs[0];
+                pageScores[last - offset] = scores[0];
+            }
+            docIDs[0] = docIDs[last];
+            scores[0] = scores[last];
+            siftDown(0);
+        }
+        return new SearchResult(pageDocIDs, pageScores, offset, totalHits, totalHitsExact);
+    }
+
+    /**
+     * Returns true if the document at heap slot a is worse than the one at slot b.
+     */
+    private boolean worse(int a, int b)
+    {
+        return SearchResult.before(scores[b], docIDs[b], scores[a], docIDs[a]);
+    }
+
+    private void siftUp(int i)
+    {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i)
+    {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && worse(child + 1, child)) {
+                child++;
+            }
+            if (!worse(child, i)) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j)
+    {
+        int docID = docIDs[i];
+        docIDs[i] = docIDs[j];
+        docIDs[j] = docID;
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}